@@ -33,7 +33,7 @@ import md5 from 'md5';
  * - Grafico a barre delle visite giornaliere
  * - Grafico a torta della distribuzione delle visite per shortlink
  * - Filtro per intervallo di date personalizzabile
- * - Tabella paginata e ricercabile con i dettagli delle visite
+ * - Tabella paginata e ricercabile con i dettagli delle visite, caricate dal server una pagina alla volta
  * - Supporto per il cambio di tema (chiaro/scuro)
  */
 
@@ -58,7 +58,7 @@ export class HomePage implements OnInit, OnDestroy {
   /**
    * Contiene i dati delle statistiche dell'account ricevuti dal server.
    * Include il conteggio totale delle visite, il contatore dettagliato per shortlink
-   * e l'elenco completo delle visite.
+   * e la serie giornaliera delle visite, calcolati dal server sui rollup.
    */
   accountStats: any = null;
 
@@ -95,9 +95,15 @@ export class HomePage implements OnInit, OnDestroy {
   /** Data di fine per il filtro dell'intervallo di date (default: oggi) */
   endDate: Date = new Date();
 
-  /** Array completo delle visite ricevute dal server */
+  /** Visite caricate finora nella tabella, dalla più recente */
   visits: any[] = [];
 
+  /** Cursore della prossima pagina di visite, null se sono state caricate tutte */
+  nextCursor: string | null = null;
+
+  /** Indica se è in corso il caricamento di una pagina di visite */
+  loadingVisits: boolean = false;
+
   /** Array filtrato delle visite in base alla ricerca dell'utente */
   filteredVisits: any[] = [];
 
@@ -166,28 +172,21 @@ export class HomePage implements OnInit, OnDestroy {
 
   /**
    * Carica le statistiche dell'account dal server per l'intervallo di date selezionato.
-   * Imposta i dati per i grafici e la tabella, gestendo anche gli errori.
+   * Imposta i dati per i grafici e carica la prima pagina della tabella, gestendo anche gli errori.
    */
   loadAccountStats() {
     this.loading = true;
 
-    // Prepara l'oggetto di richiesta con l'intervallo di date formattato
-    const dateRange: DateRangeRequest = {
-      startDate: this.formatDate(this.startDate),
-      endDate: this.formatDate(this.endDate, true), // true per includere l'intero giorno finale
-    };
-
     // Effettua la chiamata API per ottenere le statistiche
-    this.urlService.getAccountStats(dateRange).subscribe({
+    this.urlService.getAccountStats(this.dateRange()).subscribe({
       next: (data) => {
         // Memorizza i dati ricevuti
         this.accountStats = data;
-        this.visits = data.visits;
-        this.filteredVisits = [...this.visits]; // Copia per il filtro
 
-        // Prepara i dati per i grafici
+        // Prepara i dati per i grafici e carica la prima pagina di visite
         this.prepareChartData();
         this.loading = false;
+        this.loadVisits(true);
       },
       error: (error) => {
         this.notificationService.notify('Errore durante il caricamento delle statistiche: ' + error, 5000);
@@ -196,6 +195,32 @@ export class HomePage implements OnInit, OnDestroy {
     });
   }
 
+  /**
+   * Carica una pagina di visite per la tabella, dalla più recente.
+   * Le pagine sono richieste al server una alla volta, così da non scaricare tutte le visite dell'intervallo.
+   *
+   * @param reset se true ricomincia dalla prima pagina, altrimenti aggiunge la pagina successiva
+   */
+  loadVisits(reset: boolean = false) {
+    if (!reset && !this.nextCursor) {
+      return;
+    }
+    this.loadingVisits = true;
+
+    this.urlService.getAccountVisits(this.dateRange(), reset ? undefined : this.nextCursor!).subscribe({
+      next: (page) => {
+        this.visits = reset ? page.visits : [...this.visits, ...page.visits];
+        this.nextCursor = page.nextCursor;
+        this.applyGlobalFilter();
+        this.loadingVisits = false;
+      },
+      error: (error) => {
+        this.notificationService.notify('Errore durante il caricamento delle visite: ' + error, 5000);
+        this.loadingVisits = false;
+      }
+    });
+  }
+
   /**
    * Prepara i dati per i grafici delle statistiche.
    * Configura sia il grafico a barre delle visite giornaliere che
@@ -203,7 +228,7 @@ export class HomePage implements OnInit, OnDestroy {
    */
   prepareChartData() {
     // Prepara i dati per il grafico delle visite giornaliere
-    const visitsByDay = this.groupVisitsByDay();
+    const visitsByDay = this.groupSeriesByDay();
 
     // Configura il dataset per il grafico a barre delle visite giornaliere
     this.visitsByDayData = {
@@ -315,51 +340,32 @@ export class HomePage implements OnInit, OnDestroy {
   }
 
   /**
-   * Raggruppa le visite per giorno, assicurandosi che tutti i giorni nell'intervallo
-   * di date selezionato siano inclusi, anche quelli senza visite.
+   * Distribuisce la serie giornaliera ricevuta dal server sui giorni dell'intervallo selezionato,
+   * includendo anche i giorni senza visite.
    *
    * @returns Un oggetto con le date come chiavi e il conteggio delle visite come valori
    */
-  groupVisitsByDay() {
+  groupSeriesByDay() {
     const visitsByDay: { [key: string]: number } = {};
 
-    // Crea un array di date che copre tutto l'intervallo selezionato
+    // Inizializza tutti i giorni nell'intervallo con zero visite, nel fuso orario locale
     const start = new Date(this.startDate);
     const end = new Date(this.endDate);
-
-    // Resetta le ore per confrontare solo le date
     start.setHours(0, 0, 0, 0);
     end.setHours(23, 59, 59, 999);
-
-    // Inizializza tutti i giorni nell'intervallo con zero visite
     for (let day = new Date(start); day <= end; day.setDate(day.getDate() + 1)) {
-      const actualDay = new Date();
-      actualDay.setTime(day.getTime()); // Copia la data corrente
-      // aggiungi un giorno per evitare problemi??? non so come mai
-      actualDay.setDate(actualDay.getDate() + 1);
-      const dateStr = actualDay.toISOString().split('T')[0]; // Formato YYYY-MM-DD
-      visitsByDay[dateStr] = 0;
+      visitsByDay[this.formatDate(day).split('T')[0]] = 0; // Formato YYYY-MM-DD
     }
 
-    // Conta le visite effettive per ogni giorno
-    this.visits.forEach(visit => {
-      const visitDate = new Date(visit.visitDate);
-      const localDateStr = visitDate.toISOString().split('T')[0]; // aggiusta tz
-      if (visitsByDay[localDateStr] !== undefined) {
-        visitsByDay[localDateStr]++;
-      }else{
-        // Se la data non è nell'intervallo, non la consideriamo
-        console.warn(`Visita con data ${visit.visitDate} fuori dall'intervallo selezionato`);
+    // Ogni elemento della serie è l'inizio di un giorno (YYYY-MM-DDT00:00:00) con il suo conteggio
+    this.accountStats.series.forEach((bucket: any) => {
+      const dateStr = bucket.bucket.split('T')[0];
+      if (visitsByDay[dateStr] !== undefined) {
+        visitsByDay[dateStr] += bucket.visitCount;
       }
     });
 
-    // Ordina i giorni cronologicamente
-    const sortedVisitsByDay: { [key: string]: number } = {};
-    Object.keys(visitsByDay).sort().forEach(key => {
-      sortedVisitsByDay[key] = visitsByDay[key];
-    });
-
-    return sortedVisitsByDay;
+    return visitsByDay;
   }
 
   /**
@@ -378,14 +384,34 @@ export class HomePage implements OnInit, OnDestroy {
    * @param event L'evento di input dal campo di ricerca
    */
   onGlobalFilter(event: Event) {
-    const searchValue = (event.target as HTMLInputElement).value.toLowerCase();
+    this.globalFilter = (event.target as HTMLInputElement).value.toLowerCase();
+    this.applyGlobalFilter();
+  }
+
+  /**
+   * Applica il filtro globale corrente alle visite caricate finora.
+   */
+  applyGlobalFilter() {
+    const searchValue = this.globalFilter;
     this.filteredVisits = this.visits.filter(visit =>
       visit.shortCode.toLowerCase().includes(searchValue) ||
-      visit.ipAddress.toLowerCase().includes(searchValue) ||
-      visit.userAgent.toLowerCase().includes(searchValue)
+      (visit.ipAddress ?? '').toLowerCase().includes(searchValue) ||
+      (visit.userAgent ?? '').toLowerCase().includes(searchValue)
     );
   }
 
+  /**
+   * Restituisce l'intervallo di date selezionato nel formato richiesto dall'API.
+   *
+   * @returns L'intervallo di date, con la data di fine estesa all'intero giorno
+   */
+  dateRange(): DateRangeRequest {
+    return {
+      startDate: this.formatDate(this.startDate),
+      endDate: this.formatDate(this.endDate, true), // true per includere l'intero giorno finale
+    };
+  }
+
   /**
    * Formatta una data nel formato richiesto dall'API.
    * Per le date di fine, imposta l'orario a 23:59:59 per includere l'intero giorno.
@@ -47,7 +47,7 @@ declare function downloadCanvasAsImage(shortlink: string): void;
  * - Grafico a barre delle visite giornaliere
  * - Filtro per intervallo di date personalizzabile
  * - Modalità live per aggiornamenti in tempo reale
- * - Tabella paginata e ricercabile con i dettagli delle visite
+ * - Tabella paginata e ricercabile con i dettagli delle visite, caricate dal server una pagina alla volta
  * - Modifica e eliminazione dello shortlink
  * - Generazione di codice QR per lo shortlink
  * - Supporto per il cambio di tema (chiaro/scuro)
@@ -81,7 +81,10 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
   /** Dettagli completi dell'URL */
   urlDetails: any = null;
 
-  /** Contiene i dati delle statistiche dell'URL ricevuti dal server */
+  /**
+   * Contiene i dati delle statistiche dell'URL ricevuti dal server: conteggio totale,
+   * visitatori unici e serie giornaliera delle visite, calcolati sui rollup.
+   */
   urlStats: any = null;
 
   /** Indica se è in corso il caricamento dei dati dal server */
@@ -102,9 +105,15 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
   /** Opzioni di configurazione per il grafico a barre delle visite giornaliere */
   visitsByDayOptions: any;
 
-  /** Array completo delle visite ricevute dal server */
+  /** Visite caricate finora nella tabella, dalla più recente */
   visits: any[] = [];
 
+  /** Cursore della prossima pagina di visite, null se sono state caricate tutte */
+  nextCursor: string | null = null;
+
+  /** Indica se è in corso il caricamento di una pagina di visite */
+  loadingVisits: boolean = false;
+
   /** Array filtrato delle visite in base alla ricerca dell'utente */
   filteredVisits: any[] = [];
 
@@ -282,10 +291,9 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
       this.urlService.getUrlStats(this.shortCode).subscribe({
         next: (data) => {
           this.urlStats = data;
-          this.visits = data.visits;
-          this.filteredVisits = [...this.visits].sort((a, b) => new Date(b.visitDate).getTime() - new Date(a.visitDate).getTime());
           this.prepareChartData();
           this.loading = false;
+          this.loadVisits(true);
 
           // Sottoscrive agli aggiornamenti WebSocket
           this.subscribeToWebSocketUpdates();
@@ -297,21 +305,15 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
       });
     } else {
       // In modalità non live, utilizza getUrlStatsWithRange con l'intervallo di date selezionato
-      const dateRange: DateRangeRequest = {
-        startDate: this.formatDate(this.startDate),
-        endDate: this.formatDate(this.endDate, true), // true per includere l'intero giorno finale
-      };
-
-      this.urlService.getUrlStatsWithRange(this.shortCode, dateRange).subscribe({
+      this.urlService.getUrlStatsWithRange(this.shortCode, this.dateRange()).subscribe({
         next: (data) => {
           this.urlStats = data;
-          this.visits = data.visits;
-          this.filteredVisits = [...this.visits];
           this.prepareChartData();
           this.loading = false;
+          this.loadVisits(true);
 
           // Annulla la sottoscrizione al WebSocket in modalità non live
-          this.webSocketService.unsubscribe(`/topic/url/${this.shortCode}`);
+          this.webSocketService.unsubscribe('/user/queue/visits');
           if (this.wsSubscription) {
             this.wsSubscription.unsubscribe();
           }
@@ -324,9 +326,37 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
     }
   }
 
+  /**
+   * Carica una pagina di visite per la tabella, dalla più recente.
+   * Le pagine sono richieste al server una alla volta, così da non scaricare tutte le visite dell'intervallo.
+   *
+   * @param reset se true ricomincia dalla prima pagina, altrimenti aggiunge la pagina successiva
+   */
+  loadVisits(reset: boolean = false) {
+    if (!reset && !this.nextCursor) {
+      return;
+    }
+    this.loadingVisits = true;
+
+    this.urlService.getUrlVisits(this.shortCode, this.dateRange(), reset ? undefined : this.nextCursor!).subscribe({
+      next: (page) => {
+        this.visits = reset ? page.visits : [...this.visits, ...page.visits];
+        this.nextCursor = page.nextCursor;
+        this.applyGlobalFilter();
+        this.loadingVisits = false;
+      },
+      error: (error) => {
+        this.notificationService.notify('Errore durante il caricamento delle visite: ' + error, 5000);
+        this.loadingVisits = false;
+      }
+    });
+  }
+
   /**
    * Sottoscrive agli aggiornamenti WebSocket per l'URL corrente.
-   * Quando arriva un nuovo aggiornamento, aggiorna i dati delle visite e i grafici.
+   * Quando arriva un nuovo aggiornamento, aggiorna la tabella, il contatore e il grafico.
+   * Con molte visite ravvicinate non tutte vengono inviate, quindi la tabella può mostrarne meno del contatore,
+   * mentre contatore e grafico usano il numero esatto di nuove visite.
    */
   subscribeToWebSocketUpdates() {
     // Annulla eventuali sottoscrizioni precedenti
@@ -335,16 +365,24 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
       this.wsSubscription.unsubscribe();
     }
 
-    // Sottoscrive agli aggiornamenti WebSocket
-    this.wsSubscription = this.webSocketService.subscribe(`/topic/url/${this.shortCode}`).subscribe(
+    // Sottoscrive alla coda dell'utente, che riceve in un unico messaggio gli aggiornamenti di tutti i suoi link
+    this.wsSubscription = this.webSocketService.subscribe('/user/queue/visits').subscribe(
       (message) => {
-        // Aggiunge la nuova visita all'inizio dell'array
-        this.visits.unshift(message.lastVisit);
-        this.filteredVisits = [...this.visits];
+        const update = message.updates.find((u: any) => u.shortCode === this.shortCode);
+        if (!update) {
+          return;
+        }
 
-        // Aggiorna il conteggio totale delle visite
+        // Ogni aggiornamento accorpa le visite di una breve finestra: aggiunge all'inizio dell'array
+        // quelle più recenti, già ordinate dalla più nuova alla più vecchia
+        this.visits.unshift(...update.visits);
+        this.applyGlobalFilter();
+
+        // Aggiorna il conteggio totale delle visite e il giorno corrente della serie,
+        // che includono anche le visite non presenti nel campione
         if (this.urlStats) {
-          this.urlStats.visitCount++;
+          this.urlStats.visitCount += update.visitCountDelta;
+          this.addToTodaySeries(update.visitCountDelta);
         }
 
         // Aggiorna i grafici
@@ -359,7 +397,7 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
    */
   prepareChartData() {
     // Prepara i dati per il grafico delle visite giornaliere
-    const visitsByDay = this.groupVisitsByDay();
+    const visitsByDay = this.groupSeriesByDay();
 
     // Configura il dataset per il grafico a barre delle visite giornaliere
     this.visitsByDayData = {
@@ -406,46 +444,47 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
   }
 
   /**
-   * Raggruppa le visite per giorno, assicurandosi che tutti i giorni nell'intervallo
-   * di date selezionato siano inclusi, anche quelli senza visite.
+   * Distribuisce la serie giornaliera ricevuta dal server sui giorni dell'intervallo selezionato,
+   * includendo anche i giorni senza visite.
    *
    * @returns Un oggetto con le date come chiavi e il conteggio delle visite come valori
    */
-  groupVisitsByDay() {
+  groupSeriesByDay() {
     const visitsByDay: { [key: string]: number } = {};
 
-    // Crea un array di date che copre tutto l'intervallo selezionato
+    // Inizializza tutti i giorni nell'intervallo con zero visite, nel fuso orario locale
     const start = new Date(this.startDate);
     const end = new Date(this.endDate);
-
-    // Resetta le ore per confrontare solo le date
     start.setHours(0, 0, 0, 0);
     end.setHours(23, 59, 59, 999);
-
-    // Inizializza tutti i giorni nell'intervallo con zero visite
     for (let day = new Date(start); day <= end; day.setDate(day.getDate() + 1)) {
-      let actualDay = new Date(day);
-      // stesso problema di homepage??
-      actualDay.setDate(actualDay.getDate() + 1);
-      const dateStr = actualDay.toISOString().split('T')[0]; // Formato YYYY-MM-DD
-      visitsByDay[dateStr] = 0;
+      visitsByDay[this.formatDate(day).split('T')[0]] = 0; // Formato YYYY-MM-DD
     }
 
-    // Conta le visite effettive per ogni giorno
-    this.visits.forEach(visit => {
-      const date = visit.visitDate.split('T')[0];
-      if (visitsByDay[date] !== undefined) {
-        visitsByDay[date]++;
+    // Ogni elemento della serie è l'inizio di un giorno (YYYY-MM-DDT00:00:00) con il suo conteggio
+    this.urlStats.series.forEach((bucket: any) => {
+      const dateStr = bucket.bucket.split('T')[0];
+      if (visitsByDay[dateStr] !== undefined) {
+        visitsByDay[dateStr] += bucket.visitCount;
       }
     });
 
-    // Ordina i giorni cronologicamente
-    const sortedVisitsByDay: { [key: string]: number } = {};
-    Object.keys(visitsByDay).sort().forEach(key => {
-      sortedVisitsByDay[key] = visitsByDay[key];
-    });
+    return visitsByDay;
+  }
 
-    return sortedVisitsByDay;
+  /**
+   * Aggiunge le nuove visite ricevute in tempo reale al giorno corrente della serie.
+   *
+   * @param visitCount il numero di nuove visite
+   */
+  addToTodaySeries(visitCount: number) {
+    const today = this.formatDate(new Date());
+    const bucket = this.urlStats.series.find((b: any) => b.bucket.startsWith(today.split('T')[0]));
+    if (bucket) {
+      bucket.visitCount += visitCount;
+    } else {
+      this.urlStats.series.push({ bucket: today, visitCount: visitCount });
+    }
   }
 
   /**
@@ -475,13 +514,33 @@ export class ShortLinkDetailsPage implements OnInit, OnDestroy {
    * @param event L'evento di input dal campo di ricerca
    */
   onGlobalFilter(event: Event) {
-    const searchValue = (event.target as HTMLInputElement).value.toLowerCase();
+    this.globalFilter = (event.target as HTMLInputElement).value.toLowerCase();
+    this.applyGlobalFilter();
+  }
+
+  /**
+   * Applica il filtro globale corrente alle visite caricate finora.
+   */
+  applyGlobalFilter() {
+    const searchValue = this.globalFilter;
     this.filteredVisits = this.visits.filter(visit =>
-      visit.ipAddress.toLowerCase().includes(searchValue) ||
-      visit.userAgent.toLowerCase().includes(searchValue)
+      (visit.ipAddress ?? '').toLowerCase().includes(searchValue) ||
+      (visit.userAgent ?? '').toLowerCase().includes(searchValue)
     );
   }
 
+  /**
+   * Restituisce l'intervallo di date selezionato nel formato richiesto dall'API.
+   *
+   * @returns L'intervallo di date, con la data di fine estesa all'intero giorno
+   */
+  dateRange(): DateRangeRequest {
+    return {
+      startDate: this.formatDate(this.startDate),
+      endDate: this.formatDate(this.endDate, true), // true per includere l'intero giorno finale
+    };
+  }
+
   /**
    * Formatta una data nel formato richiesto dall'API.
    * Per le date di fine, imposta l'orario a 23:59:59 per includere l'intero giorno.
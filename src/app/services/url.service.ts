@@ -27,6 +27,9 @@ export class UrlService {
    */
   urlsRefresh$ = this.urlsRefresh.asObservable();
 
+  /** Numero di visite richieste per ogni pagina delle tabelle delle visite */
+  private readonly visitPageSize = 100;
+
   constructor(private http: HttpClient) {}
 
   /**
@@ -107,12 +110,14 @@ export class UrlService {
   }
 
   /**
-   * Ottiene le statistiche per un URL specifico dell'ultima settimana
+   * Ottiene le statistiche per un URL specifico dell'ultima settimana.
+   * La risposta contiene conteggio totale, visitatori unici e la serie giornaliera delle visite;
+   * le singole visite si ottengono a pagine con getUrlVisits
    * @param shortCode Il codice breve dell'URL
    * @returns Observable con le statistiche dell'URL
    */
   getUrlStats(shortCode: string): Observable<any> {
-    return this.http.get<any>(`/urls/${shortCode}/stats`)
+    return this.http.get<any>(`/urls/${shortCode}/stats?granularity=DAY`)
       .pipe(
         catchError(error => {
           return throwError(() => error.error?.error || 'Impossibile ottenere le statistiche dell\'URL');
@@ -121,7 +126,8 @@ export class UrlService {
   }
 
   /**
-   * Ottiene le statistiche per un URL specifico in un intervallo di date personalizzato
+   * Ottiene le statistiche per un URL specifico in un intervallo di date personalizzato,
+   * con la serie giornaliera delle visite
    * @param shortCode Il codice breve dell'URL
    * @param dateRange L'intervallo di date per le statistiche
    * @returns Observable con le statistiche dell'URL
@@ -130,7 +136,7 @@ export class UrlService {
     shortCode: string,
     dateRange: DateRangeRequest
   ): Observable<any> {
-    return this.http.post<any>(`/urls/${shortCode}/stats/range`, dateRange)
+    return this.http.post<any>(`/urls/${shortCode}/stats/range?granularity=DAY`, dateRange)
       .pipe(
         catchError(error => {
           return throwError(() => error.error?.error || 'Impossibile ottenere le statistiche dell\'URL');
@@ -139,16 +145,61 @@ export class UrlService {
   }
 
   /**
-   * Ottiene le statistiche dell'account in un intervallo di date personalizzato
+   * Ottiene le statistiche dell'account in un intervallo di date personalizzato,
+   * con il conteggio per shortlink e la serie giornaliera delle visite
    * @param dateRange L'intervallo di date per le statistiche
    * @returns Observable con le statistiche dell'account
    */
   getAccountStats(dateRange: DateRangeRequest): Observable<any> {
-    return this.http.post<any>('/urls/accountstats', dateRange)
+    return this.http.post<any>('/urls/accountstats?granularity=DAY', dateRange)
       .pipe(
         catchError(error => {
           return throwError(() => error.error?.error || 'Impossibile ottenere le statistiche dell\'account');
         })
       );
   }
+
+  /**
+   * Ottiene una pagina delle visite di un URL specifico, dalla più recente
+   * @param shortCode Il codice breve dell'URL
+   * @param dateRange L'intervallo di date delle visite
+   * @param cursor Il cursore restituito dalla pagina precedente, assente per la prima pagina
+   * @returns Observable con le visite della pagina e il cursore della successiva (null sull'ultima)
+   */
+  getUrlVisits(shortCode: string, dateRange: DateRangeRequest, cursor?: string): Observable<any> {
+    return this.http.post<any>(`/urls/${shortCode}/visits`, dateRange, { params: this.visitPageParams(cursor) })
+      .pipe(
+        catchError(error => {
+          return throwError(() => error.error?.error || 'Impossibile ottenere le visite dell\'URL');
+        })
+      );
+  }
+
+  /**
+   * Ottiene una pagina delle visite di tutti gli URL dell'utente autenticato, dalla più recente
+   * @param dateRange L'intervallo di date delle visite
+   * @param cursor Il cursore restituito dalla pagina precedente, assente per la prima pagina
+   * @returns Observable con le visite della pagina e il cursore della successiva (null sull'ultima)
+   */
+  getAccountVisits(dateRange: DateRangeRequest, cursor?: string): Observable<any> {
+    return this.http.post<any>('/urls/visits', dateRange, { params: this.visitPageParams(cursor) })
+      .pipe(
+        catchError(error => {
+          return throwError(() => error.error?.error || 'Impossibile ottenere le visite dell\'account');
+        })
+      );
+  }
+
+  /**
+   * Parametri di una richiesta di pagina di visite
+   * @param cursor Il cursore della pagina, assente per la prima pagina
+   * @returns I parametri della richiesta
+   */
+  private visitPageParams(cursor?: string): { [param: string]: string } {
+    const params: { [param: string]: string } = { limit: String(this.visitPageSize) };
+    if (cursor) {
+      params['cursor'] = cursor;
+    }
+    return params;
+  }
 }
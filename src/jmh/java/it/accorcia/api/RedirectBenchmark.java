@@ -0,0 +1,106 @@
+package it.accorcia.api;
+
+import it.accorcia.api.service.ShortCodeAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark end-to-end del reindirizzamento: l'applicazione completa viene avviata su H2 in memoria
+ * e le richieste passano da Tomcat, dal filtro di reindirizzamento, dalla cache e dall'accodamento delle visite.
+ * Ogni combinazione viene eseguita con i thread di piattaforma e con i virtual thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class RedirectBenchmark {
+
+    /**
+     * Se true le richieste vengono gestite con i virtual thread.
+     */
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    /**
+     * Numero di link inseriti prima della misura.
+     */
+    @Param({"10000"})
+    private int links;
+
+    private EmbeddedApplication application;
+
+    private ShortCodeAllocator shortCodeAllocator;
+
+    private HttpClient client;
+
+    private String baseUrl;
+
+    private List<String> codes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        application = new EmbeddedApplication(virtualThreads);
+        codes = application.seed(links);
+        shortCodeAllocator = application.getBean(ShortCodeAllocator.class);
+        baseUrl = application.baseUrl() + "/";
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        application.close();
+    }
+
+    @Benchmark
+    public int redirectExisting() throws IOException, InterruptedException {
+        String code = codes.get(ThreadLocalRandom.current().nextInt(codes.size()));
+        return get(code);
+    }
+
+    @Benchmark
+    public int redirectUnknown() throws IOException, InterruptedException {
+        return get("missing" + ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    public String nextCode() {
+        return shortCodeAllocator.nextCode();
+    }
+
+    private int get(String code) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + code)).GET().build();
+        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status != 302) {
+            throw new IllegalStateException("Risposta inattesa per /" + code + ": " + status);
+        }
+        return status;
+    }
+}
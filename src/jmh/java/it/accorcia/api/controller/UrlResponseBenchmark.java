@@ -0,0 +1,56 @@
+package it.accorcia.api.controller;
+
+import it.accorcia.api.dto.UrlView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark della costruzione della mappa di risposta di un URL accorciato,
+ * eseguita per ogni elemento dell'elenco degli URL di un utente.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlResponseBenchmark {
+
+    private UrlController controller;
+
+    private UrlView permanent;
+
+    private UrlView expiring;
+
+    @Setup
+    public void setup() {
+        controller = new UrlController();
+        ReflectionTestUtils.setField(controller, "deploymentUrl", "https://accorcia.it");
+        LocalDateTime now = LocalDateTime.now();
+        permanent = new UrlView(1L, "https://example.org/page", "abc123", now, null, 1234);
+        expiring = new UrlView(2L, "https://example.org/page", "def456", now, now.plusDays(30), 1234);
+    }
+
+    @Benchmark
+    public Map<String, Object> createUrlResponse() {
+        return controller.createUrlResponse(permanent);
+    }
+
+    @Benchmark
+    public Map<String, Object> createUrlResponseExpiring() {
+        return controller.createUrlResponse(expiring);
+    }
+}
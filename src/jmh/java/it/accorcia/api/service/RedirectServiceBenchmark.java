@@ -0,0 +1,62 @@
+package it.accorcia.api.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark delle parti del reindirizzamento che non accedono al database:
+ * estrazione dell'IP del client e preparazione dell'header Location.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedirectServiceBenchmark {
+
+    private MockHttpServletRequest direct;
+
+    private MockHttpServletRequest proxied;
+
+    @Setup
+    public void setup() {
+        direct = new MockHttpServletRequest("GET", "/abc123");
+        direct.setRemoteAddr("203.0.113.7");
+
+        proxied = new MockHttpServletRequest("GET", "/abc123");
+        proxied.setRemoteAddr("10.0.0.1");
+        proxied.addHeader("X-Forwarded-For", "203.0.113.7, 198.51.100.2, 10.0.0.1");
+    }
+
+    @Benchmark
+    public String clientIpDirect() {
+        return RedirectService.getClientIpAddress(direct);
+    }
+
+    @Benchmark
+    public String clientIpForwarded() {
+        return RedirectService.getClientIpAddress(proxied);
+    }
+
+    @Benchmark
+    public String locationAscii() {
+        return RedirectService.toLocation("https://example.org/some/long/path?utm_source=newsletter&utm_medium=email");
+    }
+
+    @Benchmark
+    public String locationEncoded() {
+        return RedirectService.toLocation("https://example.org/päth/città?q=a b");
+    }
+}
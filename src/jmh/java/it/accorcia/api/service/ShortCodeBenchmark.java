@@ -0,0 +1,40 @@
+package it.accorcia.api.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark della generazione dei codici brevi: codifica in base 62 di un valore della sequenza.
+ * Sostituisce il vecchio RandomStringGenerator, che non esiste più.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortCodeBenchmark {
+
+    /**
+     * Valore iniziale della sequenza: 0 produce codici di 6 caratteri, 56800235584 (62^6) di 7.
+     */
+    @Param({"0", "56800235584"})
+    private long start;
+
+    private long value;
+
+    @Benchmark
+    public String encode() {
+        return ShortCodeAllocator.encode(start + (value++ & 0xFFFF));
+    }
+}
@@ -0,0 +1,269 @@
+package it.accorcia.api;
+
+import it.accorcia.api.EmbeddedApplication.SeededUser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test di carico end-to-end riproducibile in locale.
+ * Avvia l'applicazione su H2 in memoria, inserisce utenti, link e visite, e poi un numero fisso di client
+ * esegue in ciclo chiuso reindirizzamenti, creazioni di link e richieste di statistiche, secondo la proporzione indicata.
+ * Per ogni modalità dei thread (piattaforma e virtual thread) stampa throughput e latenze p50/p99/p999
+ * di ogni operazione e le aggiunge a un file CSV, così da confrontare build diverse sulla stessa macchina.
+ * <p>
+ * Le opzioni si passano come --nome=valore: users, links (per utente), visits (per link), clients,
+ * warmup e duration (ad esempio 10s), mix (percentuali redirect:create:stats), threads (platform, virtual o both),
+ * replica (true per instradare le statistiche a un secondo database), label (etichetta della build nel CSV)
+ * e output (percorso del CSV).
+ */
+public class LoadTest {
+
+    /**
+     * Operazioni eseguite dai client.
+     */
+    private enum Operation {
+        REDIRECT, CREATE, STATS
+    }
+
+    /**
+     * Latenze registrate da un singolo client, in nanosecondi.
+     * Ogni client ha le proprie, così la registrazione non introduce contesa tra i client.
+     */
+    private static class Recorder {
+        private final long[][] latencies = new long[Operation.values().length][1024];
+        private final int[] counts = new int[Operation.values().length];
+        private final long[] errors = new long[Operation.values().length];
+
+        private void record(Operation operation, long nanos) {
+            int i = operation.ordinal();
+            if (counts[i] == latencies[i].length) {
+                latencies[i] = Arrays.copyOf(latencies[i], counts[i] * 2);
+            }
+            latencies[i][counts[i]++] = nanos;
+        }
+    }
+
+    private final Map<String, String> options;
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .build();
+
+    private final AtomicLong created = new AtomicLong();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Opzione non valida: " + arg + " (formato --nome=valore)");
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        LoadTest loadTest = new LoadTest(options);
+        String threads = loadTest.option("threads", "both");
+        try {
+            if (!threads.equals("virtual")) {
+                loadTest.run(false);
+            }
+            if (!threads.equals("platform")) {
+                loadTest.run(true);
+            }
+        } finally {
+            loadTest.client.close();
+        }
+        // lo scheduler e i thread di acquisizione delle visite non devono tenere in vita il processo
+        System.exit(0);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    private Duration durationOption(String name, String defaultValue) {
+        return Duration.parse("PT" + option(name, defaultValue).toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Esegue il test di carico con una modalità dei thread.
+     *
+     * @param virtualThreads true per gestire le richieste con i virtual thread
+     */
+    private void run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        int clients = intOption("clients", 32);
+        Duration warmup = durationOption("warmup", "10s");
+        Duration duration = durationOption("duration", "30s");
+        int[] mix = Arrays.stream(option("mix", "90:5:5").split(":")).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%n[%s] avvio dell'applicazione e popolamento del database...%n", mode);
+        boolean replica = Boolean.parseBoolean(option("replica", "false"));
+        try (EmbeddedApplication application = new EmbeddedApplication(virtualThreads, replica)) {
+            List<SeededUser> users = application.seed(
+                intOption("users", 10),
+                intOption("links", 100),
+                intOption("visits", 100)
+            );
+            String baseUrl = application.baseUrl();
+
+            System.out.printf("[%s] %d client, riscaldamento %ds, misura %ds, mix %s%n",
+                mode, clients, warmup.toSeconds(), duration.toSeconds(), option("mix", "90:5:5"));
+
+            long start = System.nanoTime();
+            long measureFrom = start + warmup.toNanos();
+            long end = measureFrom + duration.toNanos();
+            List<Recorder> recorders = new ArrayList<>(clients);
+            List<Thread> threads = new ArrayList<>(clients);
+            for (int c = 0; c < clients; c++) {
+                Recorder recorder = new Recorder();
+                recorders.add(recorder);
+                threads.add(Thread.ofPlatform().name("loadtest-client-" + c).start(
+                    () -> drive(baseUrl, users, mix, recorder, measureFrom, end)
+                ));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            report(mode, recorders, duration, clients);
+        }
+    }
+
+    /**
+     * Ciclo di un client: sceglie un'operazione secondo il mix e la esegue fino alla fine del test.
+     * Le latenze vengono registrate solo dopo il riscaldamento.
+     */
+    private void drive(String baseUrl, List<SeededUser> users, int[] mix, Recorder recorder, long measureFrom, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int total = mix[0] + mix[1] + mix[2];
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            SeededUser user = users.get(random.nextInt(users.size()));
+            String code = user.codes().get(random.nextInt(user.codes().size()));
+            int pick = random.nextInt(total);
+            Operation operation = pick < mix[0] ? Operation.REDIRECT
+                : pick < mix[0] + mix[1] ? Operation.CREATE
+                : Operation.STATS;
+
+            HttpRequest request = switch (operation) {
+                case REDIRECT -> HttpRequest.newBuilder(URI.create(baseUrl + "/" + code)).GET().build();
+                case CREATE -> HttpRequest.newBuilder(URI.create(baseUrl + "/api/urls"))
+                    .header("Authorization", "Bearer " + user.token())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"originalUrl\":\"https://example.org/new/" + created.incrementAndGet() + "\"}"
+                    ))
+                    .build();
+                case STATS -> HttpRequest.newBuilder(URI.create(baseUrl + "/api/urls/" + code + "/stats"))
+                    .header("Authorization", "Bearer " + user.token())
+                    .GET()
+                    .build();
+            };
+            int expected = operation == Operation.REDIRECT ? 302 : 200;
+
+            boolean ok;
+            try {
+                ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == expected;
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long latency = System.nanoTime() - now;
+
+            if (now >= measureFrom) {
+                if (ok) {
+                    recorder.record(operation, latency);
+                } else {
+                    recorder.errors[operation.ordinal()]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stampa i risultati di una modalità e li aggiunge al file CSV.
+     */
+    private void report(String mode, List<Recorder> recorders, Duration duration, int clients) throws IOException {
+        Path output = Path.of(option("output", "target/loadtest-results.csv"));
+        boolean header = !Files.exists(output);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        System.out.printf("%n%-9s %-9s %10s %10s %10s %10s %10s %10s %8s%n",
+            "threads", "operation", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(
+            output, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        ))) {
+            if (header) {
+                csv.println("timestamp,label,threads,clients,operation,count,ops_per_second,p50_ms,p99_ms,p999_ms,max_ms,errors");
+            }
+            for (Operation operation : Operation.values()) {
+                int i = operation.ordinal();
+                long[] all = recorders.stream()
+                    .flatMapToLong(r -> Arrays.stream(r.latencies[i], 0, r.counts[i]))
+                    .sorted()
+                    .toArray();
+                long errors = recorders.stream().mapToLong(r -> r.errors[i]).sum();
+                double throughput = all.length / (duration.toNanos() / 1e9);
+
+                String name = operation.name().toLowerCase(Locale.ROOT);
+                double p50 = percentile(all, 0.5);
+                double p99 = percentile(all, 0.99);
+                double p999 = percentile(all, 0.999);
+                double max = all.length == 0 ? 0 : all[all.length - 1] / 1e6;
+
+                System.out.printf(Locale.ROOT, "%-9s %-9s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    mode, name, all.length, throughput, p50, p99, p999, max, errors);
+                csv.printf(Locale.ROOT, "%s,%s,%s,%d,%s,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d%n",
+                    LocalDateTime.now(), option("label", ""), mode, clients, name,
+                    all.length, throughput, p50, p99, p999, max, errors);
+            }
+        }
+        System.out.printf("Risultati aggiunti a %s%n", output);
+    }
+
+    /**
+     * Calcola un percentile con il metodo nearest-rank.
+     *
+     * @param sorted le latenze in nanosecondi, ordinate
+     * @param quantile il quantile, tra 0 e 1
+     * @return il percentile in millisecondi, 0 se non ci sono misure
+     */
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
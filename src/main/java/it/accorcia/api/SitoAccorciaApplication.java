@@ -2,13 +2,16 @@ package it.accorcia.api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Classe principale dell'applicazione per l'accorciamento degli URL.
  * Questa classe avvia l'applicazione Spring Boot che fornisce servizi
  * per la creazione e gestione di URL accorciati.
+ * Abilita l'esecuzione dei job di manutenzione pianificati.
  */
 @SpringBootApplication
+@EnableScheduling
 public class SitoAccorciaApplication {
 
     /**
@@ -5,11 +5,12 @@ import it.accorcia.api.dto.LoginRequest;
 import it.accorcia.api.dto.RegisterRequest;
 import it.accorcia.api.model.User;
 import it.accorcia.api.repository.UserRepository;
+import it.accorcia.api.util.AuthenticatedUser;
 import it.accorcia.api.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -126,16 +127,17 @@ public class AuthController {
      * Verifica la vecchia password e aggiorna con la nuova password codificata.
      *
      * @param changePasswordRequest Richiesta contenente la vecchia e la nuova password
-     * @param auth Autenticazione corrente dell'utente
+     * @param principal l'utente autenticato
      * @return Risposta con esito del cambio password
      */
     @PostMapping("/change-password")
     public ResponseEntity<?> changePassword(
         @RequestBody
         ChangePasswordRequest changePasswordRequest,
-        Authentication auth
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
     ) {
-        User user = userRepository.findByUsername(auth.getPrincipal().toString())
+        User user = userRepository.findById(principal.id())
             .orElseThrow(() -> new RuntimeException("Utente non trovato"));
 
         if (!passwordEncoder.matches(
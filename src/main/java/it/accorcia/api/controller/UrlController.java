@@ -3,22 +3,45 @@ package it.accorcia.api.controller;
 import it.accorcia.api.dto.CreateUrlRequest;
 import it.accorcia.api.dto.DateRangeRequest;
 import it.accorcia.api.dto.EditUrlRequest;
+import it.accorcia.api.dto.UrlView;
+import it.accorcia.api.dto.VisitCursor;
+import it.accorcia.api.dto.VisitView;
 import it.accorcia.api.model.ShortenedUrl;
-import it.accorcia.api.model.UrlVisit;
-import it.accorcia.api.model.User;
 import it.accorcia.api.repository.ShortenedUrlRepository;
 import it.accorcia.api.repository.UrlVisitRepository;
 import it.accorcia.api.repository.UserRepository;
-import it.accorcia.api.util.RandomStringGenerator;
+import it.accorcia.api.service.BulkUrlService;
+import it.accorcia.api.service.BulkUrlService.BulkFormat;
+import it.accorcia.api.service.ShortCodeAllocator;
+import it.accorcia.api.service.ShortCodeFilter;
+import it.accorcia.api.service.ShortUrlCache;
+import it.accorcia.api.service.UrlPurgeService;
+import it.accorcia.api.service.VisitExportService;
+import it.accorcia.api.service.VisitExportService.ExportFormat;
+import it.accorcia.api.service.VisitStatsService;
+import it.accorcia.api.service.VisitStatsService.Granularity;
+import it.accorcia.api.util.AuthenticatedUser;
+import it.accorcia.api.util.DataSourceRoute;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -57,46 +80,110 @@ public class UrlController {
     @Autowired
     private UrlVisitRepository visitRepository;
 
+    /**
+     * Servizio di creazione massiva degli URL accorciati.
+     */
+    @Autowired
+    private BulkUrlService bulkUrlService;
+
+    /**
+     * Allocatore dei codici brevi generati automaticamente.
+     */
+    @Autowired
+    private ShortCodeAllocator shortCodeAllocator;
+
+    /**
+     * Filtro dei codici brevi esistenti, da aggiornare ad ogni nuovo link.
+     */
+    @Autowired
+    private ShortCodeFilter shortCodeFilter;
+
+    /**
+     * Cache di risoluzione dei codici brevi, da invalidare quando un link cambia.
+     */
+    @Autowired
+    private ShortUrlCache urlCache;
+
+    /**
+     * Servizio che calcola le statistiche di visita a partire dai rollup.
+     */
+    @Autowired
+    private VisitStatsService visitStatsService;
+
+    /**
+     * Servizio di esportazione in streaming delle visite.
+     */
+    @Autowired
+    private VisitExportService visitExportService;
+
+    /**
+     * Servizio di eliminazione dei link e di cancellazione in background delle loro visite.
+     */
+    @Autowired
+    private UrlPurgeService urlPurgeService;
+
+    /**
+     * Numero massimo di visite restituite in una pagina.
+     */
+    @Value("${visits.listing.max-page-size:1000}")
+    private int maxPageSize;
+
     /**
      * Crea un nuovo URL accorciato.
-     * Se non viene specificato un codice breve personalizzato, ne viene generato uno casuale.
+     * Se non viene specificato un codice breve personalizzato, ne viene assegnato uno dall'allocatore dei codici.
+     * L'unicità del codice è verificata dal vincolo sul database al momento dell'inserimento.
      *
      * @param request la richiesta contenente l'URL originale, il codice breve opzionale e la data di scadenza opzionale
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param principal l'utente autenticato
      * @return una risposta contenente i dettagli dell'URL accorciato creato
      */
     @PostMapping
     public ResponseEntity<?> createShortUrl(
         @RequestBody
         CreateUrlRequest request,
-        Authentication auth
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
     ) {
-        User user = userRepository.findByUsername(auth.getName())
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-
         String shortCode = request.getShortCode();
         if (shortCode == null || shortCode.isEmpty()) {
-            shortCode = RandomStringGenerator.generateRandomString(6);
+            ShortenedUrl url = shortCodeAllocator.insertWithNewCode(code -> saveNewUrl(request, code, principal));
+            return ResponseEntity.ok(createUrlResponse(UrlView.of(url)));
         }
 
-        if (urlRepository.existsByShortCode(shortCode)) {
+        try {
+            ShortenedUrl url = saveNewUrl(request, shortCode, principal);
+            return ResponseEntity.ok(createUrlResponse(UrlView.of(url)));
+        } catch (DataIntegrityViolationException e) {
             return ResponseEntity.badRequest().body(Map.of("error", "Short code già esistente"));
         }
+    }
 
-        ShortenedUrl url = ShortenedUrl.builder()
-            .originalUrl(request.getOriginalUrl())
-            .shortCode(shortCode)
-            .user(user)
-            .createdAt(java.time.LocalDateTime.now())
-            .visits(new ArrayList<>())
-            .build();
-
-        try{
-            url.setExpirationDate(request.getExpirationDate());
-        }catch (Exception ignored){}
-
-        url = urlRepository.save(url);
-        return ResponseEntity.ok(createUrlResponse(url));
+    /**
+     * Crea in un'unica richiesta molti URL accorciati, ad esempio per una campagna.
+     * Il corpo può essere un array JSON, un oggetto JSON per riga (application/x-ndjson)
+     * o un CSV con intestazione (text/csv), con gli stessi campi della creazione singola.
+     * Il corpo viene letto in streaming e l'esito di ogni riga viene restituito in NDJSON man mano che i blocchi
+     * vengono inseriti, con il codice breve assegnato o il motivo dell'errore.
+     *
+     * @param request la richiesta HTTP, da cui viene letto il corpo
+     * @param response la risposta HTTP, su cui viene scritto l'esito delle righe
+     * @param principal l'utente autenticato
+     */
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson", "text/csv"})
+    public void createShortUrlsBulk(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        bulkUrlService.createAll(
+            principal.id(),
+            BulkFormat.fromContentType(request.getContentType()),
+            request.getInputStream(),
+            response.getOutputStream()
+        );
     }
 
     /**
@@ -105,7 +192,7 @@ public class UrlController {
      *
      * @param shortCode il codice breve dell'URL da modificare
      * @param request la richiesta contenente i nuovi valori per l'URL originale e la data di scadenza
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param principal l'utente autenticato
      * @return una risposta contenente i dettagli dell'URL accorciato modificato
      */
     @PutMapping("/{shortCode}")
@@ -114,34 +201,34 @@ public class UrlController {
         String shortCode,
         @RequestBody
         EditUrlRequest request,
-        Authentication auth
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
     ) {
-        ShortenedUrl url = urlRepository.findByShortCode(shortCode)
-            .orElseThrow(() -> new RuntimeException("URL non trovato"));
-
-        if (!url.getUser().getUsername().equals(auth.getName())) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Accesso vietato"));
+        ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+        if (url == null) {
+            return notOwnedResponse(shortCode);
         }
 
         url.setOriginalUrl(request.getOriginalUrl());
         url.setExpirationDate(request.getExpirationDate());
 
         url = urlRepository.save(url);
-        return ResponseEntity.ok(createUrlResponse(url));
+        urlCache.invalidate(shortCode);
+        return ResponseEntity.ok(createUrlResponse(UrlView.of(url)));
     }
 
     /**
      * Ottiene tutti gli URL accorciati creati dall'utente autenticato.
      *
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param principal l'utente autenticato
      * @return una lista di tutti gli URL accorciati dell'utente con i relativi dettagli
      */
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getUserUrls(Authentication auth) {
-        User user = userRepository.findByUsername(auth.getName())
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-
-        List<ShortenedUrl> urls = urlRepository.findByUser(user);
+    public ResponseEntity<List<Map<String, Object>>> getUserUrls(
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        List<UrlView> urls = urlRepository.findByUserId(principal.id());
         List<Map<String, Object>> response = urls.stream()
             .map(this::createUrlResponse)
             .collect(Collectors.toList());
@@ -152,52 +239,48 @@ public class UrlController {
     /**
      * Ottiene le statistiche di visita dell'ultima settimana per un URL accorciato specifico.
      * L'utente può visualizzare solo le statistiche degli URL che ha creato.
+     * Conteggi e serie temporale sono calcolati dai rollup; le singole visite
+     * vengono restituite solo se richieste esplicitamente.
      *
      * @param shortCode il codice breve dell'URL di cui ottenere le statistiche
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param includeVisits se true, la risposta include anche l'elenco delle singole visite
+     * @param granularity granularità della serie temporale (HOUR o DAY), scelta automaticamente se omessa
+     * @param principal l'utente autenticato
      * @return le statistiche di visita dell'URL nell'ultima settimana
      */
     @GetMapping("/{shortCode}/stats")
     public ResponseEntity<?> getUrlStats(
       @PathVariable
       String shortCode,
-      Authentication auth
+      @RequestParam(defaultValue = "false")
+      boolean includeVisits,
+      @RequestParam(required = false)
+      Granularity granularity,
+      @AuthenticationPrincipal
+      AuthenticatedUser principal
     ) {
-        ShortenedUrl url = urlRepository.findByShortCode(shortCode)
-            .orElseThrow(() -> new RuntimeException("URL non trovato"));
-
-        if (!url.getUser().getUsername().equals(auth.getName())) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Accesso vietato"));
+        ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+        if (url == null) {
+            return notOwnedResponse(shortCode);
         }
 
         LocalDateTime startDate = LocalDateTime.now().minusDays(7);
         LocalDateTime endDate = LocalDateTime.now();
 
-        List<UrlVisit> visits = visitRepository.findByUrlAndVisitDateBetween(
-            url,
-            startDate,
-            endDate
-        );
-
-        return ResponseEntity.ok(Map.of(
-            "shortCode", shortCode,
-            "visitCount", visits.size(),
-            "visits", visits.stream().map(visit -> Map.of(
-                "id", visit.getId(),
-                "visitDate", visit.getVisitDate(),
-                "ipAddress", visit.getIpAddress(),
-                "userAgent", visit.getUserAgent()
-            )).collect(Collectors.toList())
-        ));
+        return ResponseEntity.ok(createStatsResponse(url, startDate, endDate, includeVisits, granularity));
     }
 
     /**
      * Ottiene le statistiche di visita per un URL accorciato specifico in un intervallo di date personalizzato.
      * L'utente può visualizzare solo le statistiche degli URL che ha creato.
+     * Conteggi e serie temporale sono calcolati dai rollup; le singole visite
+     * vengono restituite solo se richieste esplicitamente.
      *
      * @param shortCode il codice breve dell'URL di cui ottenere le statistiche
      * @param dateRangeRequest la richiesta contenente l'intervallo di date per cui ottenere le statistiche
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param includeVisits se true, la risposta include anche l'elenco delle singole visite
+     * @param granularity granularità della serie temporale (HOUR o DAY), scelta automaticamente se omessa
+     * @param principal l'utente autenticato
      * @return le statistiche di visita dell'URL nell'intervallo di date specificato
      */
     @PostMapping("/{shortCode}/stats/range")
@@ -206,117 +289,398 @@ public class UrlController {
       String shortCode,
       @RequestBody
       DateRangeRequest dateRangeRequest,
-      Authentication auth
+      @RequestParam(defaultValue = "false")
+      boolean includeVisits,
+      @RequestParam(required = false)
+      Granularity granularity,
+      @AuthenticationPrincipal
+      AuthenticatedUser principal
     ) {
-      ShortenedUrl url = urlRepository.findByShortCode(shortCode)
-        .orElseThrow(() -> new RuntimeException("URL non trovato"));
-
-      if (!url.getUser().getUsername().equals(auth.getName())) {
-        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Accesso vietato"));
+      ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+      if (url == null) {
+        return notOwnedResponse(shortCode);
       }
 
-      List<UrlVisit> visits = visitRepository.findByUrlAndVisitDateBetween(
+      return ResponseEntity.ok(createStatsResponse(
         url,
         dateRangeRequest.getStartDate(),
-        dateRangeRequest.getEndDate()
-      );
-
-      return ResponseEntity.ok(Map.of(
-        "shortCode", shortCode,
-        "visitCount", visits.size(),
-        "visits", visits.stream().map(visit -> Map.of(
-          "id", visit.getId(),
-          "visitDate", visit.getVisitDate(),
-          "ipAddress", visit.getIpAddress(),
-          "userAgent", visit.getUserAgent()
-        )).collect(Collectors.toList())
+        dateRangeRequest.getEndDate(),
+        includeVisits,
+        granularity
       ));
     }
 
     /**
      * Elimina un URL accorciato esistente.
      * L'utente può eliminare solo gli URL che ha creato.
+     * Il link smette subito di essere raggiungibile, mentre le sue visite vengono cancellate in background:
+     * l'avanzamento è consultabile con {@link #getPendingPurges}.
      *
      * @param shortCode il codice breve dell'URL da eliminare
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param principal l'utente autenticato
      * @return un messaggio di conferma dell'eliminazione
      */
     @DeleteMapping("/{shortCode}")
     public ResponseEntity<?> deleteShortUrl(
         @PathVariable
         String shortCode,
-        Authentication auth
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
     ) {
-        ShortenedUrl url = urlRepository.findByShortCode(shortCode)
-            .orElseThrow(() -> new RuntimeException("URL non trovato"));
-
-        if (!url.getUser().getUsername().equals(auth.getName())) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Accesso vietato"));
+        ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+        if (url == null) {
+            return notOwnedResponse(shortCode);
         }
 
-        urlRepository.delete(url);
+        urlPurgeService.delete(url);
         return ResponseEntity.ok(Map.of("message", "URL eliminato con successo"));
     }
 
+    /**
+     * Ottiene lo stato della cancellazione delle visite dei link eliminati dall'utente autenticato.
+     * I link scompaiono dall'elenco quando sono stati cancellati definitivamente.
+     *
+     * @param principal l'utente autenticato
+     * @return per ogni link in cancellazione: codice breve, data di eliminazione e visite ancora da cancellare
+     */
+    @GetMapping("/purges")
+    public ResponseEntity<List<Map<String, Object>>> getPendingPurges(
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        return ResponseEntity.ok(urlPurgeService.getPendingPurges(principal.id()));
+    }
+
     /**
      * Ottiene le statistiche di visita per tutti gli URL dell'utente autenticato in un intervallo di date specificato.
+     * Conteggi e serie temporale sono calcolati dai rollup; le singole visite
+     * vengono restituite solo se richieste esplicitamente.
      *
      * @param dateRangeRequest la richiesta contenente l'intervallo di date per cui ottenere le statistiche
-     * @param auth l'oggetto di autenticazione dell'utente corrente
+     * @param includeVisits se true, la risposta include anche l'elenco delle singole visite
+     * @param granularity granularità della serie temporale (HOUR o DAY), scelta automaticamente se omessa
+     * @param principal l'utente autenticato
      * @return le statistiche di visita di tutti gli URL dell'utente nell'intervallo di date specificato
      */
     @PostMapping("/accountstats")
     public ResponseEntity<?> getAccountStatsWithRange(
       @RequestBody
       DateRangeRequest dateRangeRequest,
-      Authentication auth
+      @RequestParam(defaultValue = "false")
+      boolean includeVisits,
+      @RequestParam(required = false)
+      Granularity granularity,
+      @AuthenticationPrincipal
+      AuthenticatedUser principal
     ) {
-      User user = userRepository.findByUsername(auth.getName())
-        .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-
-      List<UrlVisit> visits = visitRepository.findByUrlUserAndVisitDateBetweenOrderByVisitDateDesc(
-        user,
+      Map<String, Object> response = visitStatsService.getAccountStats(
+        principal.id(),
         dateRangeRequest.getStartDate(),
-        dateRangeRequest.getEndDate()
+        dateRangeRequest.getEndDate(),
+        granularity
       );
 
-      List<Map<String, Object>> visitDetailedCounter = visitRepository.countVisitsByUserAndDateRange(
-          user,
+      if (includeVisits) {
+        response.put("visits", DataSourceRoute.ANALYTICS.call(() -> visitRepository.findByUserAndDateRange(
+          principal.id(),
           dateRangeRequest.getStartDate(),
           dateRangeRequest.getEndDate()
-      );
+        )));
+      }
 
-      return ResponseEntity.ok(Map.of(
-        "visitCount", visits.size(),
-          "visitDetailedCounter", visitDetailedCounter.stream().collect(Collectors.toMap(
-              map -> (String) map.get("shortCode"),
-              map -> (Long) map.get("visitCount")
-          )),
-        "visits", visits.stream().map(visit -> Map.of(
-          "id", visit.getId(),
-          "shortCode", visit.getUrl().getShortCode(),
-          "visitDate", visit.getVisitDate(),
-          "ipAddress", visit.getIpAddress(),
-          "userAgent", visit.getUserAgent()
-        )).collect(Collectors.toList())
-      ));
+      return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Ottiene una pagina delle visite di un URL accorciato in un intervallo di date.
+     * La paginazione è di tipo keyset: il campo nextCursor della risposta va passato
+     * come parametro cursor per ottenere la pagina successiva, ed è null sull'ultima pagina.
+     *
+     * @param shortCode il codice breve dell'URL di cui ottenere le visite
+     * @param dateRangeRequest la richiesta contenente l'intervallo di date
+     * @param cursor il cursore restituito dalla pagina precedente, assente per la prima pagina
+     * @param limit il numero massimo di visite per pagina
+     * @param principal l'utente autenticato
+     * @return la pagina di visite e il cursore della pagina successiva
+     */
+    @PostMapping("/{shortCode}/visits")
+    public ResponseEntity<?> getUrlVisits(
+        @PathVariable
+        String shortCode,
+        @RequestBody
+        DateRangeRequest dateRangeRequest,
+        @RequestParam(required = false)
+        String cursor,
+        @RequestParam(defaultValue = "100")
+        int limit,
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+        if (url == null) {
+            return notOwnedResponse(shortCode);
+        }
+
+        VisitCursor from = cursor != null ? VisitCursor.decode(cursor) : VisitCursor.first(dateRangeRequest.getEndDate());
+        int pageSize = clampPageSize(limit);
+
+        List<VisitView> visits = DataSourceRoute.ANALYTICS.call(() -> visitRepository.findPageByUrl(
+            url.getId(),
+            dateRangeRequest.getStartDate(),
+            dateRangeRequest.getEndDate(),
+            from.visitDate(),
+            from.id(),
+            Limit.of(pageSize)
+        ));
+
+        return ResponseEntity.ok(createVisitPageResponse(visits, pageSize));
+    }
+
+    /**
+     * Ottiene una pagina delle visite di tutti gli URL dell'utente autenticato in un intervallo di date.
+     * La paginazione è di tipo keyset: il campo nextCursor della risposta va passato
+     * come parametro cursor per ottenere la pagina successiva, ed è null sull'ultima pagina.
+     *
+     * @param dateRangeRequest la richiesta contenente l'intervallo di date
+     * @param cursor il cursore restituito dalla pagina precedente, assente per la prima pagina
+     * @param limit il numero massimo di visite per pagina
+     * @param principal l'utente autenticato
+     * @return la pagina di visite e il cursore della pagina successiva
+     */
+    @PostMapping("/visits")
+    public ResponseEntity<?> getAccountVisits(
+        @RequestBody
+        DateRangeRequest dateRangeRequest,
+        @RequestParam(required = false)
+        String cursor,
+        @RequestParam(defaultValue = "100")
+        int limit,
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        VisitCursor from = cursor != null ? VisitCursor.decode(cursor) : VisitCursor.first(dateRangeRequest.getEndDate());
+        int pageSize = clampPageSize(limit);
+
+        List<VisitView> visits = DataSourceRoute.ANALYTICS.call(() -> visitRepository.findPageByUser(
+            principal.id(),
+            dateRangeRequest.getStartDate(),
+            dateRangeRequest.getEndDate(),
+            from.visitDate(),
+            from.id(),
+            Limit.of(pageSize)
+        ));
+
+        return ResponseEntity.ok(createVisitPageResponse(visits, pageSize));
+    }
+
+    /**
+     * Esporta in streaming le visite di un URL accorciato in un intervallo di date, in formato CSV o NDJSON.
+     * Le righe vengono scritte man mano che arrivano dal database, senza caricarle tutte in memoria.
+     *
+     * @param shortCode il codice breve dell'URL di cui esportare le visite
+     * @param dateRangeRequest la richiesta contenente l'intervallo di date
+     * @param format il formato di esportazione (CSV o NDJSON)
+     * @param principal l'utente autenticato
+     * @return lo stream delle visite
+     */
+    @PostMapping("/{shortCode}/visits/export")
+    public ResponseEntity<StreamingResponseBody> exportUrlVisits(
+        @PathVariable
+        String shortCode,
+        @RequestBody
+        DateRangeRequest dateRangeRequest,
+        @RequestParam(defaultValue = "NDJSON")
+        ExportFormat format,
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        ShortenedUrl url = urlRepository.findByShortCodeAndUserId(shortCode, principal.id()).orElse(null);
+        if (url == null) {
+            // la risposta è uno stream, l'accesso vietato viene gestito da GlobalExceptionHandler
+            if (urlRepository.existsByShortCode(shortCode)) {
+                throw new AccessDeniedException("Accesso vietato");
+            }
+            return ResponseEntity.notFound().build();
+        }
+
+        Long urlId = url.getId();
+        StreamingResponseBody body = out -> visitExportService.exportUrlVisits(
+            urlId,
+            dateRangeRequest.getStartDate(),
+            dateRangeRequest.getEndDate(),
+            format,
+            out
+        );
+
+        return createExportResponse(shortCode, format, body);
+    }
+
+    /**
+     * Esporta in streaming le visite di tutti gli URL dell'utente autenticato in un intervallo di date,
+     * in formato CSV o NDJSON.
+     *
+     * @param dateRangeRequest la richiesta contenente l'intervallo di date
+     * @param format il formato di esportazione (CSV o NDJSON)
+     * @param principal l'utente autenticato
+     * @return lo stream delle visite
+     */
+    @PostMapping("/visits/export")
+    public ResponseEntity<StreamingResponseBody> exportAccountVisits(
+        @RequestBody
+        DateRangeRequest dateRangeRequest,
+        @RequestParam(defaultValue = "NDJSON")
+        ExportFormat format,
+        @AuthenticationPrincipal
+        AuthenticatedUser principal
+    ) {
+        Long userId = principal.id();
+        StreamingResponseBody body = out -> visitExportService.exportUserVisits(
+            userId,
+            dateRangeRequest.getStartDate(),
+            dateRangeRequest.getEndDate(),
+            format,
+            out
+        );
+
+        return createExportResponse("account", format, body);
+    }
+
+    /**
+     * Salva un nuovo URL accorciato con il codice breve indicato.
+     *
+     * @param request la richiesta contenente l'URL originale e la data di scadenza opzionale
+     * @param shortCode il codice breve da assegnare
+     * @param principal l'utente autenticato, proprietario del nuovo URL
+     * @return l'URL accorciato salvato
+     * @throws DataIntegrityViolationException se il codice breve è già in uso
+     */
+    private ShortenedUrl saveNewUrl(CreateUrlRequest request, String shortCode, AuthenticatedUser principal) {
+        ShortenedUrl url = ShortenedUrl.builder()
+            .originalUrl(request.getOriginalUrl())
+            .shortCode(shortCode)
+            .user(userRepository.getReferenceById(principal.id()))
+            .createdAt(java.time.LocalDateTime.now())
+            .visits(new ArrayList<>())
+            .build();
+
+        try{
+            url.setExpirationDate(request.getExpirationDate());
+        }catch (Exception ignored){}
+
+        // il codice va nel filtro prima del salvataggio, così non viene mai scartato una volta visibile
+        shortCodeFilter.add(shortCode);
+        return urlRepository.save(url);
+    }
+
+    /**
+     * Crea la risposta per un codice breve che non corrisponde a nessun URL dell'utente.
+     * Viene eseguita solo in questo caso una seconda query per distinguere un codice inesistente
+     * (404 Not Found) da un codice che appartiene a un altro utente (403 Forbidden).
+     *
+     * @param shortCode il codice breve richiesto
+     * @return la risposta di errore corrispondente
+     */
+    private ResponseEntity<?> notOwnedResponse(String shortCode) {
+        if (urlRepository.existsByShortCode(shortCode)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Accesso vietato"));
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "URL non trovato"));
+    }
+
+    /**
+     * Crea la risposta con le statistiche di un URL accorciato calcolate dai rollup,
+     * aggiungendo l'elenco delle singole visite solo se richiesto.
+     *
+     * @param url l'URL accorciato di cui calcolare le statistiche
+     * @param startDate inizio dell'intervallo
+     * @param endDate fine dell'intervallo
+     * @param includeVisits se true, aggiunge l'elenco delle singole visite
+     * @param granularity granularità della serie temporale, null per la scelta automatica
+     * @return una mappa contenente le statistiche dell'URL
+     */
+    private Map<String, Object> createStatsResponse(
+        ShortenedUrl url,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        boolean includeVisits,
+        Granularity granularity
+    ) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("shortCode", url.getShortCode());
+        response.putAll(visitStatsService.getUrlStats(url.getId(), startDate, endDate, granularity));
+
+        if (includeVisits) {
+            response.put("visits", DataSourceRoute.ANALYTICS.call(
+                () -> visitRepository.findByUrlAndDateRange(url.getId(), startDate, endDate)
+            ));
+        }
+
+        return response;
+    }
+
+    /**
+     * Crea la risposta di una pagina di visite, con il cursore della pagina successiva.
+     *
+     * @param visits le visite della pagina
+     * @param pageSize la dimensione richiesta della pagina
+     * @return una mappa contenente le visite e il cursore successivo, null se non ci sono altre pagine
+     */
+    private Map<String, Object> createVisitPageResponse(List<VisitView> visits, int pageSize) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("visits", visits);
+        response.put("nextCursor", visits.size() == pageSize
+            ? VisitCursor.after(visits.get(visits.size() - 1)).encode()
+            : null);
+        return response;
+    }
+
+    /**
+     * Crea la risposta di un'esportazione in streaming, con tipo di contenuto e nome del file.
+     *
+     * @param name il nome base del file esportato
+     * @param format il formato di esportazione
+     * @param body il corpo che scrive le visite sullo stream della risposta
+     * @return la risposta in streaming
+     */
+    private ResponseEntity<StreamingResponseBody> createExportResponse(
+        String name,
+        ExportFormat format,
+        StreamingResponseBody body
+    ) {
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(format.getContentType()))
+            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("visits-" + name + "." + format.getExtension())
+                .build()
+                .toString())
+            .body(body);
+    }
+
+    /**
+     * Limita la dimensione di pagina richiesta all'intervallo consentito.
+     *
+     * @param limit la dimensione richiesta
+     * @return la dimensione effettiva della pagina
+     */
+    private int clampPageSize(int limit) {
+        return Math.max(1, Math.min(limit, maxPageSize));
     }
 
     /**
      * Crea una mappa di risposta con i dettagli di un URL accorciato.
      *
-     * @param url l'entità ShortenedUrl da convertire in risposta
+     * @param url la proiezione dell'URL accorciato da convertire in risposta
      * @return una mappa contenente i dettagli dell'URL accorciato
      */
-    private Map<String, Object> createUrlResponse(ShortenedUrl url) {
+    Map<String, Object> createUrlResponse(UrlView url) {
         return Map.of(
-            "id", url.getId(),
-            "originalUrl", url.getOriginalUrl(),
-            "shortCode", url.getShortCode(),
-            "shortUrl", deploymentUrl + "/" + url.getShortCode(),
-            "createdAt", url.getCreatedAt(),
-            "expirationDate", url.getExpirationDate() != null ? url.getExpirationDate().toString() : "never",
-            "visitCount", url.getVisitCount()
+            "id", url.id(),
+            "originalUrl", url.originalUrl(),
+            "shortCode", url.shortCode(),
+            "shortUrl", deploymentUrl + "/" + url.shortCode(),
+            "createdAt", url.createdAt(),
+            "expirationDate", url.expirationDate() != null ? url.expirationDate().toString() : "never",
+            "visitCount", url.visitCount()
         );
     }
 }
@@ -0,0 +1,42 @@
+package it.accorcia.api.dto;
+
+import it.accorcia.api.model.ShortenedUrl;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proiezione di sola lettura di un URL accorciato, usata per l'elenco degli URL di un utente.
+ * Viene costruita direttamente dalla query, senza caricare l'entità ShortenedUrl né le sue associazioni.
+ *
+ * @param id identificatore dell'URL accorciato
+ * @param originalUrl URL originale
+ * @param shortCode codice breve
+ * @param createdAt data e ora di creazione
+ * @param expirationDate data e ora di scadenza, null se l'URL non scade
+ * @param visitCount numero totale di visite ricevute
+ */
+public record UrlView(
+    Long id,
+    String originalUrl,
+    String shortCode,
+    LocalDateTime createdAt,
+    LocalDateTime expirationDate,
+    long visitCount
+) {
+    /**
+     * Crea la proiezione di un'entità già caricata.
+     *
+     * @param url l'URL accorciato
+     * @return la proiezione corrispondente
+     */
+    public static UrlView of(ShortenedUrl url) {
+        return new UrlView(
+            url.getId(),
+            url.getOriginalUrl(),
+            url.getShortCode(),
+            url.getCreatedAt(),
+            url.getExpirationDate(),
+            url.getVisitCount()
+        );
+    }
+}
@@ -0,0 +1,67 @@
+package it.accorcia.api.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Cursore per la paginazione keyset delle visite, ordinate per (visitDate, id) decrescenti.
+ * Al client viene esposto come stringa opaca: la pagina successiva parte dalla prima visita
+ * strettamente precedente a quella indicata dal cursore, senza OFFSET.
+ *
+ * @param visitDate data dell'ultima visita della pagina precedente
+ * @param id identificatore dell'ultima visita della pagina precedente
+ */
+public record VisitCursor(LocalDateTime visitDate, Long id) {
+
+    /**
+     * Crea il cursore che punta subito dopo la visita indicata.
+     *
+     * @param visit l'ultima visita della pagina corrente
+     * @return il cursore per la pagina successiva
+     */
+    public static VisitCursor after(VisitView visit) {
+        return new VisitCursor(visit.visitDate(), visit.id());
+    }
+
+    /**
+     * Crea il cursore della prima pagina di un intervallo, che include anche le visite alla data di fine.
+     *
+     * @param endDate la data di fine dell'intervallo
+     * @return il cursore della prima pagina
+     */
+    public static VisitCursor first(LocalDateTime endDate) {
+        return new VisitCursor(endDate, Long.MAX_VALUE);
+    }
+
+    /**
+     * Codifica il cursore come stringa opaca sicura per gli URL.
+     *
+     * @return il cursore codificato
+     */
+    public String encode() {
+        String raw = visitDate + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un cursore ricevuto dal client.
+     *
+     * @param cursor il cursore codificato
+     * @return il cursore decodificato
+     * @throws RuntimeException se il cursore non è valido
+     */
+    public static VisitCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new VisitCursor(
+                LocalDateTime.parse(raw.substring(0, separator)),
+                Long.parseLong(raw.substring(separator + 1))
+            );
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new RuntimeException("Cursore non valido");
+        }
+    }
+}
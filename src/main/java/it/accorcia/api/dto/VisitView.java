@@ -0,0 +1,22 @@
+package it.accorcia.api.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proiezione di sola lettura di una visita, usata per gli elenchi paginati.
+ * Viene costruita direttamente dalla query, senza caricare le entità UrlVisit e ShortenedUrl.
+ *
+ * @param id identificatore della visita
+ * @param shortCode codice breve dell'URL visitato
+ * @param visitDate data e ora della visita
+ * @param ipAddress indirizzo IP del visitatore
+ * @param userAgent user agent del visitatore
+ */
+public record VisitView(
+    Long id,
+    String shortCode,
+    LocalDateTime visitDate,
+    String ipAddress,
+    String userAgent
+) {
+}
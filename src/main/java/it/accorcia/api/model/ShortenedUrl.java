@@ -2,6 +2,8 @@ package it.accorcia.api.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.SQLRestriction;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -10,9 +12,12 @@ import java.util.List;
  * Classe che rappresenta un URL accorciato nel sistema.
  * Questa entità memorizza l'URL originale, il codice breve generato,
  * le date di creazione e scadenza, l'utente proprietario e le visite ricevute.
+ * I link eliminati restano sul database finché le loro visite non sono state cancellate,
+ * ma vengono esclusi da tutte le query sull'entità.
  */
 @Entity
-@Table(name = "shortened_url")
+@Table(name = "shortened_url", indexes = @Index(name = "idx_shortened_url_user", columnList = "user_id"))
+@SQLRestriction("deleted_at IS NULL")
 @Getter
 @Setter
 @Builder
@@ -50,6 +55,15 @@ public class ShortenedUrl {
      */
     private LocalDateTime expirationDate;
 
+    /**
+     * Numero totale di visite ricevute dall'URL accorciato.
+     * Viene incrementato in modo atomico dal servizio di acquisizione delle visite
+     * e non è mai scritto dagli aggiornamenti dell'entità, per non sovrascrivere gli incrementi concorrenti.
+     */
+    @ColumnDefault("0")
+    @Column(nullable = false, updatable = false)
+    private long visitCount;
+
     /**
      * Utente proprietario dell'URL accorciato.
      */
@@ -57,10 +71,18 @@ public class ShortenedUrl {
     @JoinColumn(name = "user_id")
     private User user;
 
+    /**
+     * Data e ora di eliminazione dell'URL accorciato, null se non è stato eliminato.
+     * Viene scritta solo da UrlPurgeService, che poi cancella le visite e infine la riga stessa.
+     */
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime deletedAt;
+
     /**
      * Lista delle visite ricevute dall'URL accorciato.
+     * Non è in cascata: le visite vengono cancellate a blocchi da UrlPurgeService, senza caricarle in memoria.
      */
-    @OneToMany(mappedBy = "url", cascade = CascadeType.ALL)
+    @OneToMany(mappedBy = "url")
     private List<UrlVisit> visits = new ArrayList<>();
 
     /**
@@ -72,13 +94,4 @@ public class ShortenedUrl {
         return expirationDate != null && LocalDateTime.now().isAfter(expirationDate);
     }
 
-    /**
-     * Ottiene il numero totale di visite ricevute dall'URL accorciato.
-     *
-     * @return il numero di visite
-     */
-    public int getVisitCount() {
-        return visits.size();
-    }
-
 }
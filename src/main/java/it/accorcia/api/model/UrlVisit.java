@@ -10,7 +10,7 @@ import java.time.LocalDateTime;
  * l'indirizzo IP del visitatore, lo user agent e l'URL accorciato visitato.
  */
 @Entity
-@Table(name = "url_visit")
+@Table(name = "url_visit", indexes = @Index(name = "idx_url_visit_url_date", columnList = "url_id, visit_date"))
 @Getter
 @Setter
 @Builder
@@ -0,0 +1,47 @@
+package it.accorcia.api.model;
+
+import it.accorcia.api.util.HyperLogLog;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Classe che rappresenta il numero di visite ricevute da un URL accorciato in un giorno.
+ * Oltre al conteggio memorizza uno sketch HyperLogLog degli indirizzi IP,
+ * da cui stimare i visitatori unici su un qualsiasi intervallo di giorni.
+ */
+@Entity
+@Table(name = "url_visit_daily")
+@IdClass(UrlVisitRollupId.class)
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UrlVisitDaily {
+    /**
+     * Identificatore dell'URL accorciato visitato.
+     */
+    @Id
+    @Column(name = "url_id")
+    private Long urlId;
+
+    /**
+     * Inizio del giorno aggregato (mezzanotte).
+     */
+    @Id
+    private LocalDateTime bucketStart;
+
+    /**
+     * Numero di visite ricevute nel giorno.
+     */
+    @Column(nullable = false)
+    private long visitCount;
+
+    /**
+     * Sketch HyperLogLog degli indirizzi IP dei visitatori del giorno.
+     */
+    @Column(length = HyperLogLog.SIZE_BYTES)
+    private byte[] ipSketch;
+}
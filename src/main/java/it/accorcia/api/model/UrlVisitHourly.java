@@ -0,0 +1,40 @@
+package it.accorcia.api.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Classe che rappresenta il numero di visite ricevute da un URL accorciato in un'ora.
+ * Le righe vengono mantenute in modo incrementale dal servizio di acquisizione delle visite
+ * e permettono di calcolare conteggi e serie temporali senza leggere le singole visite.
+ */
+@Entity
+@Table(name = "url_visit_hourly")
+@IdClass(UrlVisitRollupId.class)
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UrlVisitHourly {
+    /**
+     * Identificatore dell'URL accorciato visitato.
+     */
+    @Id
+    @Column(name = "url_id")
+    private Long urlId;
+
+    /**
+     * Inizio dell'ora aggregata (minuti e secondi a zero).
+     */
+    @Id
+    private LocalDateTime bucketStart;
+
+    /**
+     * Numero di visite ricevute nell'ora.
+     */
+    @Column(nullable = false)
+    private long visitCount;
+}
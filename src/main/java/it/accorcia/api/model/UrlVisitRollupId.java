@@ -0,0 +1,26 @@
+package it.accorcia.api.model;
+
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Chiave composta dei rollup delle visite: URL accorciato e inizio dell'intervallo aggregato.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class UrlVisitRollupId implements Serializable {
+    /**
+     * Identificatore dell'URL accorciato.
+     */
+    private Long urlId;
+
+    /**
+     * Inizio dell'intervallo aggregato.
+     */
+    private LocalDateTime bucketStart;
+}
@@ -1,12 +1,16 @@
 package it.accorcia.api.repository;
 
+import it.accorcia.api.dto.UrlView;
 import it.accorcia.api.model.ShortenedUrl;
-import it.accorcia.api.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Repository per l'accesso e la gestione delle entità ShortenedUrl nel database.
@@ -22,13 +26,26 @@ public interface ShortenedUrlRepository extends JpaRepository<ShortenedUrl, Long
      */
     Optional<ShortenedUrl> findByShortCode(String shortCode);
 
+    /**
+     * Trova un URL accorciato tramite il suo codice breve solo se appartiene all'utente specificato.
+     * Il controllo di proprietà avviene nella stessa query, sulla colonna user_id, senza caricare l'utente.
+     *
+     * @param shortCode il codice breve da cercare
+     * @param userId l'identificatore dell'utente proprietario
+     * @return un Optional contenente l'URL accorciato se esiste ed è dell'utente, altrimenti vuoto
+     */
+    Optional<ShortenedUrl> findByShortCodeAndUserId(String shortCode, Long userId);
+
     /**
      * Trova tutti gli URL accorciati creati da un determinato utente.
+     * Restituisce direttamente le proiezioni, con una sola query e senza caricare le entità.
      *
-     * @param user l'utente di cui cercare gli URL
+     * @param userId l'identificatore dell'utente di cui cercare gli URL
      * @return una lista di URL accorciati appartenenti all'utente
      */
-    List<ShortenedUrl> findByUser(User user);
+    @Query("SELECT new it.accorcia.api.dto.UrlView(u.id, u.originalUrl, u.shortCode, u.createdAt, u.expirationDate, u.visitCount) " +
+        "FROM ShortenedUrl u WHERE u.user.id = :userId ORDER BY u.id")
+    List<UrlView> findByUserId(@Param("userId") Long userId);
 
     /**
      * Verifica se esiste già un URL accorciato con il codice breve specificato.
@@ -37,4 +54,14 @@ public interface ShortenedUrlRepository extends JpaRepository<ShortenedUrl, Long
      * @return true se esiste già un URL con quel codice, false altrimenti
      */
     boolean existsByShortCode(String shortCode);
+
+    /**
+     * Restituisce, tra i codici brevi indicati, quelli già in uso, con un'unica query.
+     * Include i codici dei link eliminati ma non ancora cancellati, che occupano ancora il vincolo di unicità.
+     *
+     * @param shortCodes i codici brevi da verificare
+     * @return l'insieme dei codici già in uso
+     */
+    @Query(value = "SELECT short_code FROM shortened_url WHERE short_code IN (:shortCodes)", nativeQuery = true)
+    Set<String> findExistingShortCodes(@Param("shortCodes") Collection<String> shortCodes);
 }
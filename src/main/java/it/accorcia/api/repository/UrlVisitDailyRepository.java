@@ -0,0 +1,106 @@
+package it.accorcia.api.repository;
+
+import it.accorcia.api.model.UrlVisitDaily;
+import it.accorcia.api.model.UrlVisitRollupId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository per la lettura dei rollup giornalieri delle visite.
+ * Le scritture avvengono in batch tramite JDBC dal servizio dei rollup.
+ */
+@Repository
+public interface UrlVisitDailyRepository extends JpaRepository<UrlVisitDaily, UrlVisitRollupId> {
+    /**
+     * Somma le visite di un URL accorciato nei giorni compresi nell'intervallo.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo (mezzanotte)
+     * @param endDate fine dell'intervallo
+     * @return il numero totale di visite
+     */
+    @Query("SELECT COALESCE(SUM(d.visitCount), 0) FROM UrlVisitDaily d " +
+        "WHERE d.urlId = :urlId AND d.bucketStart BETWEEN :startDate AND :endDate")
+    long sumVisitsByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Ottiene la serie giornaliera delle visite di un URL accorciato, ordinata per data.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo (mezzanotte)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti l'inizio del giorno e il conteggio delle visite
+     */
+    @Query("SELECT d.bucketStart AS bucket, d.visitCount AS visitCount FROM UrlVisitDaily d " +
+        "WHERE d.urlId = :urlId AND d.bucketStart BETWEEN :startDate AND :endDate " +
+        "ORDER BY d.bucketStart")
+    List<Map<String, Object>> findSeriesByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Conta le visite per ogni shortlink di un utente nei giorni compresi nell'intervallo.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate inizio dell'intervallo (mezzanotte)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti il codice breve e il conteggio delle visite
+     */
+    @Query("SELECT u.shortCode AS shortCode, SUM(d.visitCount) AS visitCount " +
+        "FROM UrlVisitDaily d, ShortenedUrl u " +
+        "WHERE u.id = d.urlId AND u.user.id = :userId " +
+        "AND d.bucketStart BETWEEN :startDate AND :endDate " +
+        "GROUP BY u.shortCode")
+    List<Map<String, Object>> countVisitsByUserAndDateRange(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Ottiene la serie giornaliera delle visite complessive degli URL di un utente, ordinata per data.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate inizio dell'intervallo (mezzanotte)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti l'inizio del giorno e il conteggio delle visite
+     */
+    @Query("SELECT d.bucketStart AS bucket, SUM(d.visitCount) AS visitCount " +
+        "FROM UrlVisitDaily d, ShortenedUrl u " +
+        "WHERE u.id = d.urlId AND u.user.id = :userId " +
+        "AND d.bucketStart BETWEEN :startDate AND :endDate " +
+        "GROUP BY d.bucketStart ORDER BY d.bucketStart")
+    List<Map<String, Object>> findSeriesByUserAndDateRange(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Ottiene gli sketch degli indirizzi IP di un URL accorciato per i giorni dell'intervallo.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo (mezzanotte)
+     * @param endDate fine dell'intervallo
+     * @return gli sketch HyperLogLog serializzati
+     */
+    @Query("SELECT d.ipSketch FROM UrlVisitDaily d " +
+        "WHERE d.urlId = :urlId AND d.bucketStart BETWEEN :startDate AND :endDate")
+    List<byte[]> findSketchesByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+}
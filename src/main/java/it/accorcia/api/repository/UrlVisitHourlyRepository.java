@@ -0,0 +1,90 @@
+package it.accorcia.api.repository;
+
+import it.accorcia.api.model.UrlVisitHourly;
+import it.accorcia.api.model.UrlVisitRollupId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository per la lettura dei rollup orari delle visite.
+ * Le scritture avvengono in batch tramite JDBC dal servizio dei rollup.
+ */
+@Repository
+public interface UrlVisitHourlyRepository extends JpaRepository<UrlVisitHourly, UrlVisitRollupId> {
+    /**
+     * Somma le visite di un URL accorciato nelle ore comprese nell'intervallo.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo (inizio di un'ora)
+     * @param endDate fine dell'intervallo
+     * @return il numero totale di visite
+     */
+    @Query("SELECT COALESCE(SUM(h.visitCount), 0) FROM UrlVisitHourly h " +
+        "WHERE h.urlId = :urlId AND h.bucketStart BETWEEN :startDate AND :endDate")
+    long sumVisitsByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Ottiene la serie oraria delle visite di un URL accorciato, ordinata per data.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo (inizio di un'ora)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti l'inizio dell'ora e il conteggio delle visite
+     */
+    @Query("SELECT h.bucketStart AS bucket, h.visitCount AS visitCount FROM UrlVisitHourly h " +
+        "WHERE h.urlId = :urlId AND h.bucketStart BETWEEN :startDate AND :endDate " +
+        "ORDER BY h.bucketStart")
+    List<Map<String, Object>> findSeriesByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Conta le visite per ogni shortlink di un utente nelle ore comprese nell'intervallo.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate inizio dell'intervallo (inizio di un'ora)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti il codice breve e il conteggio delle visite
+     */
+    @Query("SELECT u.shortCode AS shortCode, SUM(h.visitCount) AS visitCount " +
+        "FROM UrlVisitHourly h, ShortenedUrl u " +
+        "WHERE u.id = h.urlId AND u.user.id = :userId " +
+        "AND h.bucketStart BETWEEN :startDate AND :endDate " +
+        "GROUP BY u.shortCode")
+    List<Map<String, Object>> countVisitsByUserAndDateRange(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+
+    /**
+     * Ottiene la serie oraria delle visite complessive degli URL di un utente, ordinata per data.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate inizio dell'intervallo (inizio di un'ora)
+     * @param endDate fine dell'intervallo
+     * @return una lista di oggetti contenenti l'inizio dell'ora e il conteggio delle visite
+     */
+    @Query("SELECT h.bucketStart AS bucket, SUM(h.visitCount) AS visitCount " +
+        "FROM UrlVisitHourly h, ShortenedUrl u " +
+        "WHERE u.id = h.urlId AND u.user.id = :userId " +
+        "AND h.bucketStart BETWEEN :startDate AND :endDate " +
+        "GROUP BY h.bucketStart ORDER BY h.bucketStart")
+    List<Map<String, Object>> findSeriesByUserAndDateRange(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
+    );
+}
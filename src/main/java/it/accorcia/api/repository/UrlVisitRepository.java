@@ -1,8 +1,8 @@
 package it.accorcia.api.repository;
 
-import it.accorcia.api.model.ShortenedUrl;
+import it.accorcia.api.dto.VisitView;
 import it.accorcia.api.model.UrlVisit;
-import it.accorcia.api.model.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -10,7 +10,6 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Repository per l'accesso e la gestione delle entità UrlVisit nel database.
@@ -20,50 +19,97 @@ import java.util.Map;
 public interface UrlVisitRepository extends JpaRepository<UrlVisit, Long> {
     /**
      * Ottiene tutte le visite per gli URL appartenenti all'utente specificato in un intervallo di date.
-     * I risultati sono ordinati in ordine decrescente per data di visita (dalle più recenti alle meno recenti).
+     * I risultati sono ordinati in ordine decrescente per data di visita (dalle più recenti alle meno recenti)
+     * e il codice breve viene letto con un join, senza caricare gli URL uno alla volta.
      *
-     * @param urlUser l'utente proprietario degli URL
+     * @param userId l'identificatore dell'utente proprietario degli URL
      * @param startDate la data di inizio dell'intervallo
      * @param endDate la data di fine dell'intervallo
      * @return una lista di visite che soddisfano i criteri specificati
      */
-    List<UrlVisit> findByUrlUserAndVisitDateBetweenOrderByVisitDateDesc(
-      User urlUser,
-      LocalDateTime startDate,
-      LocalDateTime endDate
+    @Query("SELECT new it.accorcia.api.dto.VisitView(uv.id, u.shortCode, uv.visitDate, uv.ipAddress, uv.userAgent) " +
+        "FROM UrlVisit uv JOIN uv.url u " +
+        "WHERE u.user.id = :userId " +
+        "AND uv.visitDate BETWEEN :startDate AND :endDate " +
+        "ORDER BY uv.visitDate DESC, uv.id DESC")
+    List<VisitView> findByUserAndDateRange(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
     );
 
     /**
      * Ottiene tutte le visite per un URL specifico in un intervallo di date specificato.
      *
-     * @param url l'URL accorciato di cui ottenere le visite
+     * @param urlId l'identificatore dell'URL accorciato di cui ottenere le visite
      * @param startDate la data di inizio dell'intervallo
      * @param endDate la data di fine dell'intervallo
      * @return una lista di visite che soddisfano i criteri specificati
      */
-    List<UrlVisit> findByUrlAndVisitDateBetween(
-      ShortenedUrl url,
-      LocalDateTime startDate,
-      LocalDateTime endDate
+    @Query("SELECT new it.accorcia.api.dto.VisitView(uv.id, u.shortCode, uv.visitDate, uv.ipAddress, uv.userAgent) " +
+        "FROM UrlVisit uv JOIN uv.url u " +
+        "WHERE u.id = :urlId " +
+        "AND uv.visitDate BETWEEN :startDate AND :endDate " +
+        "ORDER BY uv.visitDate DESC, uv.id DESC")
+    List<VisitView> findByUrlAndDateRange(
+        @Param("urlId") Long urlId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate
     );
 
     /**
-     * Conta il numero di visite per ogni shortlink appartenente a un utente specifico
-     * in un intervallo di date specificato.
+     * Ottiene una pagina delle visite di un URL accorciato in un intervallo di date, con paginazione keyset.
+     * Le visite sono ordinate per data e id decrescenti e partono dalla prima visita
+     * strettamente precedente al cursore (cursorDate, cursorId).
      *
-     * @param urlUser l'utente proprietario degli URL
+     * @param urlId l'identificatore dell'URL accorciato
      * @param startDate la data di inizio dell'intervallo
      * @param endDate la data di fine dell'intervallo
-     * @return una lista di oggetti contenenti il codice breve e il conteggio delle visite
+     * @param cursorDate la data dell'ultima visita della pagina precedente
+     * @param cursorId l'id dell'ultima visita della pagina precedente
+     * @param limit il numero massimo di visite da restituire
+     * @return la pagina di visite richiesta
      */
-    @Query("SELECT uv.url.shortCode AS shortCode, COUNT(uv) AS visitCount " +
-        "FROM UrlVisit uv " +
-        "WHERE uv.url.user = :urlUser " +
+    @Query("SELECT new it.accorcia.api.dto.VisitView(uv.id, u.shortCode, uv.visitDate, uv.ipAddress, uv.userAgent) " +
+        "FROM UrlVisit uv JOIN uv.url u " +
+        "WHERE u.id = :urlId " +
         "AND uv.visitDate BETWEEN :startDate AND :endDate " +
-        "GROUP BY uv.url.shortCode")
-    List<Map<String, Object>> countVisitsByUserAndDateRange(
-        @Param("urlUser") User urlUser,
+        "AND (uv.visitDate < :cursorDate OR (uv.visitDate = :cursorDate AND uv.id < :cursorId)) " +
+        "ORDER BY uv.visitDate DESC, uv.id DESC")
+    List<VisitView> findPageByUrl(
+        @Param("urlId") Long urlId,
         @Param("startDate") LocalDateTime startDate,
-        @Param("endDate") LocalDateTime endDate
+        @Param("endDate") LocalDateTime endDate,
+        @Param("cursorDate") LocalDateTime cursorDate,
+        @Param("cursorId") Long cursorId,
+        Limit limit
+    );
+
+    /**
+     * Ottiene una pagina delle visite di tutti gli URL di un utente in un intervallo di date, con paginazione keyset.
+     * Le visite sono ordinate per data e id decrescenti e partono dalla prima visita
+     * strettamente precedente al cursore (cursorDate, cursorId).
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate la data di inizio dell'intervallo
+     * @param endDate la data di fine dell'intervallo
+     * @param cursorDate la data dell'ultima visita della pagina precedente
+     * @param cursorId l'id dell'ultima visita della pagina precedente
+     * @param limit il numero massimo di visite da restituire
+     * @return la pagina di visite richiesta
+     */
+    @Query("SELECT new it.accorcia.api.dto.VisitView(uv.id, u.shortCode, uv.visitDate, uv.ipAddress, uv.userAgent) " +
+        "FROM UrlVisit uv JOIN uv.url u " +
+        "WHERE u.user.id = :userId " +
+        "AND uv.visitDate BETWEEN :startDate AND :endDate " +
+        "AND (uv.visitDate < :cursorDate OR (uv.visitDate = :cursorDate AND uv.id < :cursorId)) " +
+        "ORDER BY uv.visitDate DESC, uv.id DESC")
+    List<VisitView> findPageByUser(
+        @Param("userId") Long userId,
+        @Param("startDate") LocalDateTime startDate,
+        @Param("endDate") LocalDateTime endDate,
+        @Param("cursorDate") LocalDateTime cursorDate,
+        @Param("cursorId") Long cursorId,
+        Limit limit
     );
 }
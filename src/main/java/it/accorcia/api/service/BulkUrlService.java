@@ -0,0 +1,517 @@
+package it.accorcia.api.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.accorcia.api.dto.CreateUrlRequest;
+import it.accorcia.api.repository.ShortenedUrlRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Servizio di creazione massiva degli URL accorciati.
+ * Il corpo della richiesta viene letto in streaming e processato a blocchi: per ogni blocco
+ * i conflitti dei codici personalizzati vengono verificati con un'unica query, i codici mancanti
+ * vengono assegnati dall'allocatore in memoria e gli URL vengono inseriti con un'unica INSERT JDBC in batch.
+ * L'esito di ogni riga viene scritto in NDJSON sulla risposta al termine di ogni blocco.
+ */
+@Slf4j
+@Service
+public class BulkUrlService {
+
+    /**
+     * Formati accettati per il corpo della richiesta.
+     */
+    public enum BulkFormat {
+        /**
+         * Array JSON di oggetti con originalUrl, shortCode ed expirationDate.
+         */
+        JSON,
+        /**
+         * Un oggetto JSON per riga.
+         */
+        NDJSON,
+        /**
+         * CSV con riga di intestazione; le colonne riconosciute sono originalUrl, shortCode ed expirationDate.
+         */
+        CSV;
+
+        /**
+         * Ricava il formato dal content type della richiesta.
+         *
+         * @param contentType il content type della richiesta
+         * @return il formato corrispondente, JSON se non riconosciuto
+         */
+        public static BulkFormat fromContentType(String contentType) {
+            String type = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+            if (type.startsWith("text/csv")) {
+                return CSV;
+            }
+            if (type.startsWith("application/x-ndjson")) {
+                return NDJSON;
+            }
+            return JSON;
+        }
+    }
+
+    /**
+     * Lunghezza massima delle colonne testuali di shortened_url.
+     */
+    private static final int MAX_COLUMN_LENGTH = 255;
+
+    private static final String INSERT_URL_SQL =
+        "INSERT INTO shortened_url (original_url, short_code, created_at, expiration_date, visit_count, user_id) " +
+        "VALUES (?, ?, ?, ?, 0, ?)";
+
+    /**
+     * Riga letta dal corpo della richiesta.
+     *
+     * @param line numero della riga o dell'elemento, a partire da 1
+     * @param request i dati dell'URL da creare, null se la riga non è valida
+     * @param error il motivo per cui la riga non è valida, null se è valida
+     */
+    private record BulkRow(int line, CreateUrlRequest request, String error) {
+    }
+
+    /**
+     * URL pronto per l'inserimento, con il codice breve già assegnato.
+     *
+     * @param row la riga di origine
+     * @param shortCode il codice breve assegnato
+     * @param custom true se il codice è stato scelto dall'utente
+     */
+    private record PendingUrl(BulkRow row, String shortCode, boolean custom) {
+    }
+
+    /**
+     * Lettore delle righe del corpo della richiesta.
+     */
+    private interface RowReader {
+        /**
+         * Legge la riga successiva.
+         *
+         * @return la riga letta, null a fine input
+         */
+        BulkRow next() throws IOException;
+    }
+
+    /**
+     * URL di base del deployment dell'applicazione, usato per costruire gli URL completi.
+     */
+    @Value("${deployment.url}")
+    private String deploymentUrl;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ShortenedUrlRepository urlRepository;
+
+    @Autowired
+    private ShortCodeAllocator shortCodeAllocator;
+
+    @Autowired
+    private ShortCodeFilter shortCodeFilter;
+
+    /**
+     * Numero di righe processate, verificate e inserite insieme.
+     */
+    @Value("${urls.bulk.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Numero massimo di righe accettate in una singola richiesta.
+     */
+    @Value("${urls.bulk.max-rows:100000}")
+    private int maxRows;
+
+    /**
+     * Crea gli URL accorciati descritti nel corpo della richiesta e scrive l'esito di ogni riga.
+     *
+     * @param userId l'identificatore dell'utente proprietario dei nuovi URL
+     * @param format il formato del corpo della richiesta
+     * @param in lo stream del corpo della richiesta
+     * @param out lo stream su cui scrivere l'esito delle righe in NDJSON
+     */
+    public void createAll(Long userId, BulkFormat format, InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+
+        RowReader rows = null;
+        String readError = null;
+        try {
+            rows = switch (format) {
+                case JSON -> jsonArrayReader(reader);
+                case NDJSON -> ndjsonReader(reader);
+                case CSV -> csvReader(reader);
+            };
+        } catch (IOException e) {
+            readError = e.getMessage();
+        }
+
+        // solo gli errori di lettura vengono gestiti qui: un errore nella scrittura dell'esito (ad esempio
+        // il client che si disconnette) si propaga, senza processare di nuovo righe già inserite
+        List<BulkRow> chunk = new ArrayList<>(batchSize);
+        int count = 0;
+        int overLimitLine = 0;
+        while (rows != null) {
+            BulkRow row;
+            try {
+                row = rows.next();
+            } catch (IOException e) {
+                // un corpo malformato non permette di continuare la lettura: si segnala e ci si ferma
+                readError = e.getMessage();
+                break;
+            }
+            if (row == null) {
+                break;
+            }
+            if (++count > maxRows) {
+                overLimitLine = row.line();
+                break;
+            }
+            chunk.add(row);
+            if (chunk.size() >= batchSize) {
+                List<BulkRow> full = chunk;
+                chunk = new ArrayList<>(batchSize);
+                processChunk(userId, full, generator);
+            }
+        }
+        processChunk(userId, chunk, generator);
+
+        if (overLimitLine > 0) {
+            writeError(generator, overLimitLine, "Numero massimo di righe superato (" + maxRows + ")");
+        }
+        if (readError != null) {
+            writeError(generator, count + 1, "Corpo della richiesta non valido: " + readError);
+        }
+        generator.flush();
+    }
+
+    /**
+     * Assegna i codici brevi, inserisce un blocco di righe e scrive il loro esito.
+     *
+     * @param userId l'identificatore dell'utente proprietario
+     * @param chunk le righe del blocco
+     * @param generator il generatore su cui scrivere l'esito
+     */
+    private void processChunk(Long userId, List<BulkRow> chunk, JsonGenerator generator) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        Set<String> customCodes = new HashSet<>();
+        for (BulkRow row : chunk) {
+            if (row.request() != null && hasText(row.request().getShortCode())) {
+                customCodes.add(row.request().getShortCode());
+            }
+        }
+        Set<String> taken = customCodes.isEmpty() ? Set.of() : urlRepository.findExistingShortCodes(customCodes);
+
+        List<PendingUrl> pending = new ArrayList<>(chunk.size());
+        List<Object> results = new ArrayList<>(chunk.size());
+        // i confronti distinguono maiuscole e minuscole come la collation binaria di short_code
+        Set<String> seen = new HashSet<>();
+        for (BulkRow row : chunk) {
+            if (row.error() != null) {
+                results.add(row);
+                continue;
+            }
+            String shortCode = row.request().getShortCode();
+            if (!hasText(shortCode)) {
+                PendingUrl url = new PendingUrl(row, shortCodeAllocator.nextCode(), false);
+                pending.add(url);
+                results.add(url);
+            } else if (taken.contains(shortCode) || !seen.add(shortCode)) {
+                results.add(new BulkRow(row.line(), null, "Short code già esistente"));
+            } else {
+                PendingUrl url = new PendingUrl(row, shortCode, true);
+                pending.add(url);
+                results.add(url);
+            }
+        }
+
+        List<Object> outcomes = insertAll(userId, pending, results);
+        for (Object outcome : outcomes) {
+            if (outcome instanceof PendingUrl url) {
+                writeCreated(generator, url);
+            } else {
+                BulkRow row = (BulkRow) outcome;
+                writeError(generator, row.line(), row.error());
+            }
+        }
+        generator.flush();
+    }
+
+    /**
+     * Inserisce gli URL di un blocco con un'unica INSERT in batch.
+     * Se il batch fallisce per un conflitto nato nel frattempo, le righe vengono inserite
+     * una alla volta così da isolare quelle in conflitto.
+     *
+     * @param userId l'identificatore dell'utente proprietario
+     * @param pending gli URL da inserire
+     * @param results l'esito provvisorio delle righe, nell'ordine di lettura
+     * @return l'esito definitivo delle righe, nell'ordine di lettura
+     */
+    private List<Object> insertAll(Long userId, List<PendingUrl> pending, List<Object> results) {
+        if (pending.isEmpty()) {
+            return results;
+        }
+
+        // i codici vanno nel filtro prima dell'inserimento, così non vengono mai scartati una volta visibili
+        pending.forEach(url -> shortCodeFilter.add(url.shortCode()));
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                INSERT_URL_SQL,
+                pending,
+                pending.size(),
+                (ps, url) -> {
+                    ps.setString(1, url.row().request().getOriginalUrl());
+                    ps.setString(2, url.shortCode());
+                    ps.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                    LocalDateTime expirationDate = url.row().request().getExpirationDate();
+                    ps.setTimestamp(4, expirationDate != null ? Timestamp.valueOf(expirationDate) : null);
+                    ps.setLong(5, userId);
+                }
+            ));
+            return results;
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Inserimento in batch di {} URL fallito, si procede riga per riga", pending.size());
+        }
+
+        List<Object> outcomes = new ArrayList<>(results.size());
+        for (Object result : results) {
+            outcomes.add(result instanceof PendingUrl url ? insertOne(userId, url) : result);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Inserisce un singolo URL. I codici generati in conflitto vengono sostituiti dall'allocatore,
+     * mentre per i codici personalizzati il conflitto viene riportato come errore della riga.
+     *
+     * @param userId l'identificatore dell'utente proprietario
+     * @param url l'URL da inserire
+     * @return l'URL inserito, eventualmente con un nuovo codice, o la riga con l'errore
+     */
+    private Object insertOne(Long userId, PendingUrl url) {
+        CreateUrlRequest request = url.row().request();
+        try {
+            if (url.custom()) {
+                insert(userId, request, url.shortCode());
+                return url;
+            }
+            try {
+                insert(userId, request, url.shortCode());
+                return url;
+            } catch (DataIntegrityViolationException e) {
+                String shortCode = shortCodeAllocator.insertWithNewCode(code -> {
+                    insert(userId, request, code);
+                    return code;
+                });
+                return new PendingUrl(url.row(), shortCode, false);
+            }
+        } catch (DataIntegrityViolationException e) {
+            return new BulkRow(url.row().line(), null, url.custom() ? "Short code già esistente" : "URL non valido");
+        }
+    }
+
+    private void insert(Long userId, CreateUrlRequest request, String shortCode) {
+        LocalDateTime expirationDate = request.getExpirationDate();
+        shortCodeFilter.add(shortCode);
+        jdbcTemplate.update(
+            INSERT_URL_SQL,
+            request.getOriginalUrl(),
+            shortCode,
+            Timestamp.valueOf(LocalDateTime.now()),
+            expirationDate != null ? Timestamp.valueOf(expirationDate) : null,
+            userId
+        );
+    }
+
+    private void writeCreated(JsonGenerator generator, PendingUrl url) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("line", url.row().line());
+        generator.writeStringField("status", "CREATED");
+        generator.writeStringField("shortCode", url.shortCode());
+        generator.writeStringField("shortUrl", deploymentUrl + "/" + url.shortCode());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void writeError(JsonGenerator generator, int line, String error) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("line", line);
+        generator.writeStringField("status", "ERROR");
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Verifica i campi obbligatori di una riga.
+     *
+     * @param line il numero della riga
+     * @param request i dati letti
+     * @return la riga pronta per l'inserimento o con l'errore di validazione
+     */
+    private static BulkRow validate(int line, CreateUrlRequest request) {
+        if (!hasText(request.getOriginalUrl())) {
+            return new BulkRow(line, null, "originalUrl mancante");
+        }
+        if (request.getOriginalUrl().length() > MAX_COLUMN_LENGTH
+            || (request.getShortCode() != null && request.getShortCode().length() > MAX_COLUMN_LENGTH)) {
+            return new BulkRow(line, null, "Valore troppo lungo (massimo " + MAX_COLUMN_LENGTH + " caratteri)");
+        }
+        return new BulkRow(line, request, null);
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    /**
+     * Lettore di un array JSON di oggetti, letto un elemento alla volta.
+     */
+    private RowReader jsonArrayReader(BufferedReader reader) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(reader);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Il corpo della richiesta deve essere un array JSON");
+        }
+        int[] line = {0};
+        return () -> {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            line[0]++;
+            return validate(line[0], objectMapper.readValue(parser, CreateUrlRequest.class));
+        };
+    }
+
+    /**
+     * Lettore di un oggetto JSON per riga. Le righe vuote vengono ignorate,
+     * quelle non valide vengono riportate come errore senza interrompere la lettura.
+     */
+    private RowReader ndjsonReader(BufferedReader reader) {
+        int[] line = {0};
+        return () -> {
+            String text;
+            do {
+                text = reader.readLine();
+                line[0]++;
+            } while (text != null && text.isBlank());
+            if (text == null) {
+                return null;
+            }
+            try {
+                return validate(line[0], objectMapper.readValue(text, CreateUrlRequest.class));
+            } catch (IOException e) {
+                return new BulkRow(line[0], null, "JSON non valido");
+            }
+        };
+    }
+
+    /**
+     * Lettore di un CSV con riga di intestazione.
+     * I campi possono essere racchiusi tra virgolette, con le virgolette interne raddoppiate.
+     */
+    private RowReader csvReader(BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        if (header == null) {
+            return () -> null;
+        }
+        List<String> columns = parseCsvLine(header.replace("\uFEFF", ""));
+        int urlColumn = columns.indexOf("originalUrl");
+        int codeColumn = columns.indexOf("shortCode");
+        int expirationColumn = columns.indexOf("expirationDate");
+        if (urlColumn < 0) {
+            throw new IOException("Colonna originalUrl mancante nell'intestazione");
+        }
+
+        int[] line = {1};
+        return () -> {
+            String text;
+            do {
+                text = reader.readLine();
+                line[0]++;
+            } while (text != null && text.isBlank());
+            if (text == null) {
+                return null;
+            }
+            List<String> fields = parseCsvLine(text);
+            try {
+                String expiration = field(fields, expirationColumn);
+                return validate(line[0], new CreateUrlRequest(
+                    field(fields, urlColumn),
+                    field(fields, codeColumn),
+                    expiration != null ? LocalDateTime.parse(expiration) : null
+                ));
+            } catch (RuntimeException e) {
+                return new BulkRow(line[0], null, "Data di scadenza non valida");
+            }
+        };
+    }
+
+    private static String field(List<String> fields, int index) {
+        if (index < 0 || index >= fields.size() || fields.get(index).isEmpty()) {
+            return null;
+        }
+        return fields.get(index);
+    }
+
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
@@ -0,0 +1,67 @@
+package it.accorcia.api.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Lock sul database per i job pianificati che devono essere eseguiti da un solo nodo alla volta.
+ * Ogni job ha una riga nella tabella job_lock: un nodo acquisisce il lock spostando in avanti locked_until
+ * con un solo UPDATE condizionato, che riesce solo se il lock precedente è scaduto, senza tenere aperta
+ * una transazione per tutta la durata del job. Se il nodo si ferma senza rilasciarlo, il lock scade da solo.
+ */
+@Slf4j
+@Service
+public class JobLock {
+
+    private static final String ACQUIRE_SQL =
+        "UPDATE job_lock SET locked_until = ?, locked_by = ? WHERE name = ? AND locked_until <= ?";
+
+    private static final String RELEASE_SQL =
+        "UPDATE job_lock SET locked_until = ? WHERE name = ? AND locked_by = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Identificatore di questo nodo, registrato in locked_by per rilasciare solo i propri lock.
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * Prova ad acquisire il lock di un job.
+     *
+     * @param name il nome del job, presente nella tabella job_lock
+     * @param duration durata massima del lock, oltre la quale un altro nodo può acquisirlo
+     * @return true se il lock è stato acquisito, false se è tenuto da un altro nodo
+     */
+    public boolean tryLock(String name, Duration duration) {
+        LocalDateTime now = LocalDateTime.now();
+        int rows = jdbcTemplate.update(
+            ACQUIRE_SQL,
+            Timestamp.valueOf(now.plus(duration)),
+            owner,
+            name,
+            Timestamp.valueOf(now)
+        );
+        if (rows == 0) {
+            log.debug("Lock del job {} tenuto da un altro nodo", name);
+        }
+        return rows == 1;
+    }
+
+    /**
+     * Rilascia il lock di un job acquisito da questo nodo.
+     *
+     * @param name il nome del job
+     */
+    public void unlock(String name) {
+        jdbcTemplate.update(RELEASE_SQL, Timestamp.valueOf(LocalDateTime.now()), name, owner);
+    }
+}
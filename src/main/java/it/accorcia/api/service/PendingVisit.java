@@ -0,0 +1,16 @@
+package it.accorcia.api.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Visita in attesa di essere scritta sul database.
+ * Contiene solo i dati da persistere, senza riferimenti a entità JPA,
+ * così da poter essere accodata dal reindirizzamento e scritta in batch in un secondo momento.
+ *
+ * @param urlId identificatore dell'URL accorciato visitato
+ * @param visitDate data e ora della visita
+ * @param ipAddress indirizzo IP del visitatore
+ * @param userAgent user agent del visitatore
+ */
+public record PendingVisit(Long urlId, LocalDateTime visitDate, String ipAddress, String userAgent) {
+}
@@ -0,0 +1,186 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.accorcia.api.service.ShortUrlCache.ResolvedUrl;
+import it.accorcia.api.util.RequestTiming;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servizio che risolve un codice breve nell'indirizzo di reindirizzamento e traccia la visita.
+ * È condiviso dal filtro di reindirizzamento rapido e da {@code RedirectController},
+ * così che i due percorsi si comportino allo stesso modo.
+ * Ogni reindirizzamento viene misurato dal timer redirect.requests, con l'esito (hit, miss, expired) come tag.
+ */
+@Service
+public class RedirectService {
+
+    /**
+     * Indirizzo a cui vengono reindirizzati i codici inesistenti o scaduti.
+     * Il 404 viene gestito da un template (vedi HomeController), per questo si reindirizza invece di rispondere 404.
+     */
+    public static final String NOT_FOUND_LOCATION = "/404";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    @Autowired
+    private ShortCodeFilter shortCodeFilter;
+
+    @Autowired
+    private ShortUrlCache urlCache;
+
+    @Autowired
+    private VisitIngestionService visitIngestionService;
+
+    @Autowired
+    private VisitBroadcastService visitBroadcastService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer hits;
+
+    private Timer misses;
+
+    private Timer expired;
+
+    /**
+     * Registra i timer dei reindirizzamenti, uno per esito, così che non vengano cercati ad ogni richiesta.
+     */
+    @PostConstruct
+    void init() {
+        hits = redirectTimer("hit");
+        misses = redirectTimer("miss");
+        expired = redirectTimer("expired");
+    }
+
+    private Timer redirectTimer(String outcome) {
+        return Timer.builder("redirect.requests")
+            .description("Durata della risoluzione dei reindirizzamenti, per esito")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            // i valori attesi sono nell'ordine dei microsecondi, i bucket predefiniti partono da 1 ms
+            .minimumExpectedValue(Duration.ofNanos(10_000))
+            .maximumExpectedValue(Duration.ofSeconds(1))
+            .register(meterRegistry);
+    }
+
+    /**
+     * Risolve un codice breve e, se il link esiste e non è scaduto, registra la visita.
+     *
+     * @param shortCode il codice breve richiesto
+     * @param request la richiesta HTTP, da cui vengono letti IP e user agent del visitatore
+     * @return il valore dell'header Location: l'URL originale o {@link #NOT_FOUND_LOCATION}
+     */
+    public String redirect(String shortCode, HttpServletRequest request) {
+        long start = System.nanoTime();
+        // i codici sicuramente inesistenti vengono scartati senza accedere a cache e database
+        ResolvedUrl url = null;
+        if (shortCodeFilter.mightExist(shortCode)) {
+            url = urlCache.resolve(shortCode).orElse(null);
+            if (url == null) {
+                shortCodeFilter.recordFalsePositive();
+            }
+        }
+
+        // controlla se l'URL esiste e non è scaduto
+        if (url == null || url.isExpired()) {
+            record(url == null ? misses : expired, start);
+            return NOT_FOUND_LOCATION;
+        }
+
+        PendingVisit visit = new PendingVisit(
+            url.id(),
+            LocalDateTime.now(),
+            getClientIpAddress(request),
+            request.getHeader("User-Agent")
+        );
+
+        // la scrittura avviene in batch in background, il redirect non attende il database
+        visitIngestionService.submit(visit);
+
+        // l'aggiornamento in tempo reale viene accorpato con le altre visite della finestra corrente
+        visitBroadcastService.record(shortCode, url.userId(), visit);
+
+        String location = toLocation(url.originalUrl());
+        record(hits, start);
+        return location;
+    }
+
+    /**
+     * Registra la durata di un reindirizzamento nel timer del suo esito e nelle fasi della richiesta.
+     *
+     * @param timer il timer dell'esito
+     * @param start l'istante di inizio, in nanosecondi
+     */
+    private static void record(Timer timer, long start) {
+        long elapsed = System.nanoTime() - start;
+        timer.record(elapsed, TimeUnit.NANOSECONDS);
+        RequestTiming.record(RequestTiming.REDIRECT, elapsed);
+    }
+
+    /**
+     * Estrae l'indirizzo IP del client dalla richiesta HTTP.
+     * Gestisce il caso in cui l'applicazione sia dietro un proxy o un bilanciatore di carico.
+     *
+     * @param request La richiesta HTTP
+     * @return L'indirizzo IP del client
+     */
+    public static String getClientIpAddress(HttpServletRequest request) {
+        String xForwardedFor = request.getHeader("X-Forwarded-For"); // rev proxy
+        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
+            int comma = xForwardedFor.indexOf(',');
+            return (comma < 0 ? xForwardedFor : xForwardedFor.substring(0, comma)).trim();
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Prepara un URL per l'header Location senza costruire un {@link java.net.URI}.
+     * Gli URL composti solo da caratteri ASCII stampabili, cioè quasi tutti, vengono restituiti così come sono;
+     * gli altri caratteri (spazi, caratteri di controllo, caratteri non ASCII) vengono codificati in UTF-8 percentuale,
+     * come faceva {@code URI.toASCIIString()}, così che l'header resti valido.
+     *
+     * @param url l'URL originale
+     * @return l'URL da usare come valore dell'header Location
+     */
+    public static String toLocation(String url) {
+        int length = url.length();
+        int i = 0;
+        while (i < length && isPlainAscii(url.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return url;
+        }
+
+        StringBuilder location = new StringBuilder(length + 16).append(url, 0, i);
+        while (i < length) {
+            char c = url.charAt(i);
+            if (isPlainAscii(c)) {
+                location.append(c);
+                i++;
+                continue;
+            }
+            // le coppie surrogate vengono codificate insieme, come un unico code point
+            int end = Character.isHighSurrogate(c) && i + 1 < length ? i + 2 : i + 1;
+            for (byte b : url.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                location.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+            i = end;
+        }
+        return location.toString();
+    }
+
+    private static boolean isPlainAscii(char c) {
+        return c > 0x20 && c < 0x7F;
+    }
+}
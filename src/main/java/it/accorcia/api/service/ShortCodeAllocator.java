@@ -0,0 +1,209 @@
+package it.accorcia.api.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Servizio di allocazione dei codici brevi generati automaticamente.
+ * Ogni nodo riserva sul database blocchi di valori consecutivi di una sequenza condivisa
+ * e li distribuisce in memoria con un contatore atomico, senza lock né query per ogni codice.
+ * Ogni valore viene poi rimescolato con una permutazione affine invertibile e codificato in base 62,
+ * così che i codici siano unici per costruzione ma non consecutivi né prevedibili a colpo d'occhio.
+ * L'unicità vale distinguendo maiuscole e minuscole: per questo la colonna short_code usa una collation binaria
+ * (migrazione db/mariadb/V7), altrimenti codici come "aB3xYz" e "Ab3XyZ" entrerebbero in conflitto sul database.
+ */
+@Slf4j
+@Service
+public class ShortCodeAllocator {
+
+    /**
+     * Alfabeto della codifica in base 62, lo stesso usato finora per i codici casuali.
+     */
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private static final int BASE = ALPHABET.length();
+
+    /**
+     * Lunghezza minima dei codici generati. Esauriti i 62^6 codici di questa lunghezza
+     * si passa automaticamente a quelli di un carattere più lunghi.
+     */
+    private static final int MIN_LENGTH = 6;
+
+    /**
+     * Moltiplicatore della permutazione affine: deve essere coprimo con 62, cioè dispari e non multiplo di 31.
+     */
+    private static final BigInteger MULTIPLIER = BigInteger.valueOf(0x2545F4914FL);
+
+    /**
+     * Termine noto della permutazione affine.
+     */
+    private static final BigInteger INCREMENT = BigInteger.valueOf(0x1B873593L);
+
+    private static final String SELECT_SEQUENCE_SQL =
+        "SELECT next_value FROM short_code_sequence WHERE name = 'url' FOR UPDATE";
+
+    private static final String UPDATE_SEQUENCE_SQL =
+        "UPDATE short_code_sequence SET next_value = ? WHERE name = 'url'";
+
+    /**
+     * Intervallo di valori riservato da questo nodo: next è il prossimo valore da assegnare, end è escluso.
+     */
+    private record Block(AtomicLong next, long end) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Numero di valori riservati sul database con ogni accesso alla sequenza.
+     */
+    @Value("${shortcode.block-size:1000}")
+    private int blockSize;
+
+    /**
+     * Numero massimo di codici provati per un singolo inserimento, nel caso in cui il codice generato
+     * coincida con un codice personalizzato scelto in precedenza da un utente.
+     */
+    @Value("${shortcode.max-attempts:5}")
+    private int maxAttempts;
+
+    /**
+     * Transazione indipendente da quella del chiamante, così che il lock sulla sequenza
+     * venga rilasciato subito dopo la riserva del blocco.
+     */
+    private TransactionTemplate reserveTransaction;
+
+    /**
+     * Blocco attualmente in uso. Inizialmente vuoto, viene riservato al primo codice richiesto.
+     */
+    private volatile Block block = new Block(new AtomicLong(), 0);
+
+    /**
+     * Lock usato solo per la riserva di un nuovo blocco, così che un solo thread per volta acceda al database.
+     */
+    private final ReentrantLock reserveLock = new ReentrantLock();
+
+    /**
+     * Inizializza la transazione usata per la riserva dei blocchi.
+     */
+    @PostConstruct
+    void init() {
+        reserveTransaction = new TransactionTemplate(transactionManager);
+        reserveTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Esegue un inserimento con un nuovo codice breve, riprovando con il codice successivo
+     * se il codice è già stato scelto come codice personalizzato da un utente.
+     * L'unicità è garantita dal vincolo sul database, senza una query di verifica preventiva.
+     *
+     * @param insert l'operazione che salva un nuovo URL con il codice ricevuto
+     * @param <T> il tipo del risultato dell'inserimento
+     * @return il risultato dell'inserimento andato a buon fine
+     */
+    public <T> T insertWithNewCode(Function<String, T> insert) {
+        for (int attempt = 1; ; attempt++) {
+            String shortCode = nextCode();
+            try {
+                return insert.apply(shortCode);
+            } catch (DataIntegrityViolationException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.warn("Codice breve generato {} già in uso, si prova il successivo", shortCode);
+            }
+        }
+    }
+
+    /**
+     * Restituisce un nuovo codice breve, mai assegnato prima da nessun nodo.
+     *
+     * @return il codice breve
+     */
+    public String nextCode() {
+        return encode(nextValue());
+    }
+
+    /**
+     * Assegna il prossimo valore del blocco corrente, riservandone uno nuovo quando è esaurito.
+     *
+     * @return il valore assegnato
+     */
+    private long nextValue() {
+        while (true) {
+            Block current = block;
+            long value = current.next().getAndIncrement();
+            if (value < current.end()) {
+                return value;
+            }
+
+            reserveLock.lock();
+            try {
+                // un altro thread potrebbe aver già sostituito il blocco mentre si attendeva il lock
+                if (block == current) {
+                    block = reserveBlock();
+                }
+            } finally {
+                reserveLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Riserva sul database il prossimo blocco di valori della sequenza condivisa.
+     *
+     * @return il blocco riservato
+     */
+    private Block reserveBlock() {
+        Long start = reserveTransaction.execute(status -> {
+            Long next = jdbcTemplate.queryForObject(SELECT_SEQUENCE_SQL, Long.class);
+            jdbcTemplate.update(UPDATE_SEQUENCE_SQL, next + blockSize);
+            return next;
+        });
+        return new Block(new AtomicLong(start), start + blockSize);
+    }
+
+    /**
+     * Rimescola un valore della sequenza e lo codifica in base 62.
+     * I primi 62^6 valori producono codici di 6 caratteri, i successivi 62^7 codici di 7 caratteri e così via;
+     * all'interno di ogni lunghezza la permutazione affine è biunivoca, quindi valori diversi danno codici diversi,
+     * che differiscono eventualmente solo per maiuscole e minuscole.
+     *
+     * @param value il valore della sequenza
+     * @return il codice breve corrispondente
+     */
+    static String encode(long value) {
+        int length = MIN_LENGTH;
+        BigInteger space = BigInteger.valueOf(BASE).pow(length);
+        BigInteger offset = BigInteger.valueOf(value);
+        while (offset.compareTo(space) >= 0) {
+            offset = offset.subtract(space);
+            length++;
+            space = space.multiply(BigInteger.valueOf(BASE));
+        }
+
+        long scrambled = offset.multiply(MULTIPLIER).add(INCREMENT).mod(space).longValue();
+        char[] code = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            code[i] = ALPHABET.charAt((int) (scrambled % BASE));
+            scrambled /= BASE;
+        }
+        return new String(code);
+    }
+}
@@ -0,0 +1,250 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.accorcia.api.util.BloomFilter;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Filtro in memoria dei codici brevi esistenti, usato per scartare i codici inesistenti senza accedere al database.
+ * Bot e scanner richiedono di continuo percorsi casuali: per questi codici il filtro risponde "sicuramente assente"
+ * e il redirect va subito alla pagina 404, mentre i codici esistenti proseguono verso cache e database come prima.
+ * Il filtro viene caricato all'avvio e aggiornato ad ogni creazione; i codici creati da altri nodi vengono
+ * letti periodicamente dal database, e una ricostruzione completa periodica elimina i codici cancellati.
+ * Con più nodi un codice appena creato su un nodo viene riconosciuto dagli altri solo alla sincronizzazione successiva:
+ * per al più redirect.bloom.sync-interval gli altri nodi rispondono con la pagina 404.
+ * I codici distinguono maiuscole e minuscole, come la collation binaria della colonna short_code.
+ */
+@Slf4j
+@Service
+public class ShortCodeFilter {
+
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM shortened_url";
+
+    private static final String SELECT_CODES_SQL = "SELECT short_code FROM shortened_url WHERE id > ?";
+
+    private static final String SELECT_RECENT_CODES_SQL = "SELECT short_code FROM shortened_url WHERE created_at >= ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Se false il filtro è disattivato e ogni codice viene cercato in cache e sul database.
+     */
+    @Value("${redirect.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * Numero minimo di codici per cui il filtro viene dimensionato; alla ricostruzione
+     * viene usato il doppio dei codici esistenti se maggiore, così da lasciare spazio ai nuovi.
+     */
+    @Value("${redirect.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    /**
+     * Probabilità di falso positivo desiderata a filtro pieno.
+     */
+    @Value("${redirect.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+     * Ogni sincronizzazione rilegge i codici creati in questo intervallo di tempo. La finestra è per data di creazione
+     * e non per id, così che i codici di transazioni ancora aperte alla lettura precedente, anche lunghe come gli
+     * inserimenti massivi, vengano letti al loro commit; copre anche piccole differenze di orologio tra i nodi.
+     */
+    @Value("${redirect.bloom.sync-window:1m}")
+    private Duration syncWindow;
+
+    /**
+     * Numero di righe lette per ogni accesso al database durante il caricamento.
+     */
+    @Value("${redirect.bloom.fetch-size:1000}")
+    private int fetchSize;
+
+    /**
+     * Filtro attualmente in uso.
+     */
+    private volatile BloomFilter filter;
+
+    /**
+     * Filtro in costruzione durante una ricostruzione completa, null altrimenti.
+     * I codici creati durante la ricostruzione vengono aggiunti anche qui, così da non andare persi.
+     */
+    private volatile BloomFilter rebuilding;
+
+    /**
+     * Lock che impedisce a sincronizzazione e ricostruzione di leggere il database contemporaneamente.
+     * È un ReentrantLock e non un blocco synchronized perché con i virtual thread attivi un synchronized
+     * tenuto durante una query bloccherebbe anche il thread di piattaforma sottostante.
+     */
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    /**
+     * Codici scartati dal filtro senza accedere al database.
+     */
+    private final AtomicLong negatives = new AtomicLong();
+
+    /**
+     * Codici ammessi dal filtro ma risultati inesistenti sul database.
+     */
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Carica il filtro all'avvio e registra le metriche.
+     */
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        rebuild();
+
+        Gauge.builder("redirect.bloom.expected.fpp", this, f -> f.filter.expectedFpp())
+            .description("Probabilità di falso positivo stimata del filtro dei codici brevi")
+            .register(meterRegistry);
+        Gauge.builder("redirect.bloom.memory", this, f -> f.filter.memoryBytes())
+            .baseUnit("bytes")
+            .description("Memoria occupata dal filtro dei codici brevi")
+            .register(meterRegistry);
+        Gauge.builder("redirect.bloom.insertions", this, f -> f.filter.insertions())
+            .description("Codici brevi inseriti nel filtro")
+            .register(meterRegistry);
+        FunctionCounter.builder("redirect.bloom.negatives", negatives, AtomicLong::get)
+            .description("Codici brevi scartati dal filtro senza accedere al database")
+            .register(meterRegistry);
+        FunctionCounter.builder("redirect.bloom.false.positives", falsePositives, AtomicLong::get)
+            .description("Codici brevi ammessi dal filtro ma inesistenti")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Verifica se un codice breve potrebbe esistere.
+     *
+     * @param shortCode il codice breve richiesto
+     * @return false se il codice sicuramente non esiste, true se potrebbe esistere o se il filtro è disattivato
+     */
+    public boolean mightExist(String shortCode) {
+        if (!enabled) {
+            return true;
+        }
+        if (filter.mightContain(shortCode)) {
+            return true;
+        }
+        negatives.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Aggiunge un codice breve al filtro. Va chiamato prima di salvare un nuovo URL,
+     * così che il codice non venga mai scartato una volta visibile sul database.
+     *
+     * @param shortCode il codice breve da aggiungere
+     */
+    public void add(String shortCode) {
+        if (!enabled) {
+            return;
+        }
+        // il filtro in costruzione va letto per primo: a ricostruzione finita filter punta già al nuovo filtro
+        BloomFilter next = rebuilding;
+        if (next != null) {
+            next.put(shortCode);
+        }
+        filter.put(shortCode);
+    }
+
+    /**
+     * Registra un codice ammesso dal filtro ma risultato inesistente, per misurare il tasso reale di falsi positivi.
+     */
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * Aggiunge al filtro i codici creati dopo l'ultima lettura, inclusi quelli creati da altri nodi.
+     */
+    @Scheduled(
+        fixedDelayString = "${redirect.bloom.sync-interval:5s}",
+        initialDelayString = "${redirect.bloom.sync-interval:5s}"
+    )
+    public void sync() {
+        if (!enabled) {
+            return;
+        }
+        loadLock.lock();
+        try {
+            load(filter, SELECT_RECENT_CODES_SQL, Timestamp.valueOf(LocalDateTime.now().minus(syncWindow)));
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Ricostruisce il filtro da zero, così da eliminare i codici cancellati
+     * e ridimensionarlo in base al numero attuale di codici.
+     */
+    @Scheduled(
+        fixedDelayString = "${redirect.bloom.rebuild-interval:1h}",
+        initialDelayString = "${redirect.bloom.rebuild-interval:1h}"
+    )
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        loadLock.lock();
+        try {
+            long count = jdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+            BloomFilter next = BloomFilter.create(Math.max(expectedInsertions, count * 2), fpp);
+            rebuilding = next;
+            try {
+                long loaded = load(next, SELECT_CODES_SQL, 0L);
+                filter = next;
+                log.info("Filtro dei codici brevi caricato: {} codici, {} KiB", loaded, next.memoryBytes() / 1024);
+            } finally {
+                rebuilding = null;
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Legge in streaming i codici selezionati dalla query e li aggiunge al filtro.
+     *
+     * @param target il filtro da popolare
+     * @param sql la query dei codici, con un solo parametro
+     * @param from il valore del parametro: l'id da cui partire, escluso, o la data di creazione minima
+     * @return il numero di codici letti
+     */
+    private long load(BloomFilter target, String sql, Object from) {
+        AtomicLong loaded = new AtomicLong();
+        jdbcTemplate.query(
+            connection -> {
+                var statement = connection.prepareStatement(sql);
+                statement.setFetchSize(fetchSize);
+                statement.setObject(1, from);
+                return statement;
+            },
+            rs -> {
+                target.put(rs.getString(1));
+                loaded.incrementAndGet();
+            }
+        );
+        return loaded.get();
+    }
+}
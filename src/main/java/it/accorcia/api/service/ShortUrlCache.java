@@ -0,0 +1,157 @@
+package it.accorcia.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.accorcia.api.model.ShortenedUrl;
+import it.accorcia.api.repository.ShortenedUrlRepository;
+import it.accorcia.api.util.DataSourceRoute;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache in memoria per la risoluzione dei codici brevi.
+ * Evita una query al database per ogni reindirizzamento, mantenendo solo i dati
+ * immutabili necessari al redirect (id, URL originale, scadenza) e mai l'entità gestita da JPA.
+ * La cache è limitata sia per numero di elementi che per tempo di permanenza (TTL),
+ * così che eventuali modifiche fatte da altri nodi diventino visibili entro il TTL.
+ * Dimensione, hit, miss ed eviction sono esposti come metriche cache.* con il tag cache=redirect.
+ */
+@Service
+public class ShortUrlCache {
+
+    /**
+     * Dati minimi necessari per effettuare un reindirizzamento.
+     *
+     * @param id identificatore dell'URL accorciato
+     * @param originalUrl URL originale a cui reindirizzare
+     * @param expirationDate data di scadenza, null se il link non scade
+     * @param userId identificatore dell'utente proprietario, a cui inviare gli aggiornamenti in tempo reale
+     */
+    public record ResolvedUrl(Long id, String originalUrl, LocalDateTime expirationDate, Long userId) {
+
+        /**
+         * Verifica se il link risolto è scaduto.
+         *
+         * @return true se il link è scaduto, false altrimenti o se non ha data di scadenza
+         */
+        public boolean isExpired() {
+            return expirationDate != null && LocalDateTime.now().isAfter(expirationDate);
+        }
+
+        /**
+         * Crea i dati di risoluzione a partire dall'entità.
+         *
+         * @param url l'entità ShortenedUrl
+         * @return i dati immutabili necessari al redirect
+         */
+        public static ResolvedUrl of(ShortenedUrl url) {
+            // l'id del proprietario è già noto al proxy lazy, quindi l'utente non viene caricato
+            Long userId = url.getUser() != null ? url.getUser().getId() : null;
+            return new ResolvedUrl(url.getId(), url.getOriginalUrl(), url.getExpirationDate(), userId);
+        }
+    }
+
+    /**
+     * Repository per il caricamento degli URL non presenti in cache.
+     */
+    @Autowired
+    private ShortenedUrlRepository urlRepository;
+
+    /**
+     * Numero massimo di codici brevi mantenuti in cache.
+     */
+    @Value("${redirect.cache.max-size:10000}")
+    private long maxSize;
+
+    /**
+     * Tempo massimo di permanenza di un elemento in cache dal suo caricamento.
+     */
+    @Value("${redirect.cache.ttl:5m}")
+    private Duration ttl;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Cache vera e propria, indicizzata per codice breve.
+     */
+    private Cache<String, ResolvedUrl> cache;
+
+    /**
+     * Numero di invalidazioni eseguite, usato per scartare i caricamenti che si sovrappongono a un'invalidazione.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Inizializza la cache con i limiti configurati e ne registra le metriche.
+     */
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "redirect");
+    }
+
+    /**
+     * Risolve un codice breve, interrogando il database solo in caso di cache miss.
+     * I codici inesistenti non vengono memorizzati.
+     *
+     * @param shortCode il codice breve da risolvere
+     * @return un Optional contenente i dati di risoluzione se il codice esiste, altrimenti vuoto
+     */
+    public Optional<ResolvedUrl> resolve(String shortCode) {
+        ResolvedUrl cached = cache.getIfPresent(shortCode);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        // la query viene fatta fuori dal lock interno della cache, così un database lento
+        // non blocca le risoluzioni degli altri codici che finiscono nello stesso bucket
+        long generation = invalidations.get();
+        Optional<ResolvedUrl> loaded = DataSourceRoute.REDIRECT.call(() -> urlRepository.findByShortCode(shortCode))
+            .map(ResolvedUrl::of);
+        loaded.ifPresent(url -> {
+            cache.put(shortCode, url);
+            // un'invalidazione arrivata durante la query può aver già rimosso la voce prima del put:
+            // il valore letto potrebbe essere quello vecchio e viene rimosso, altrimenti resterebbe in cache
+            // per tutto il TTL. Un'invalidazione successiva a questo controllo rimuove comunque il valore appena inserito
+            if (invalidations.get() != generation) {
+                cache.asMap().remove(shortCode, url);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Rimuove un codice breve dalla cache.
+     * Va chiamato ogni volta che un link viene modificato o eliminato.
+     *
+     * @param shortCode il codice breve da invalidare
+     */
+    public void invalidate(String shortCode) {
+        invalidations.incrementAndGet();
+        cache.invalidate(shortCode);
+    }
+
+    /**
+     * Restituisce il tempo massimo di permanenza in cache di un link: dopo un'eliminazione, gli altri nodi
+     * possono continuare a risolverlo dalla propria cache al più per questo tempo.
+     *
+     * @return la durata della cache
+     */
+    public Duration getTtl() {
+        return ttl;
+    }
+}
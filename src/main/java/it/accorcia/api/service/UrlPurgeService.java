@@ -0,0 +1,293 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.accorcia.api.model.ShortenedUrl;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Eliminazione dei link e delle loro visite.
+ * Un link eliminato viene solo marcato con deleted_at: da quel momento è escluso da tutte le query sull'entità,
+ * dalla cache e quindi dal reindirizzamento. Le sue visite vengono poi cancellate in background con DELETE a blocchi,
+ * ognuno nella propria transazione breve, senza mai caricarle in memoria; la riga del link e i suoi rollup
+ * vengono cancellati per ultimi. Lo stato dell'eliminazione è interamente sul database (deleted_at e visit_count,
+ * decrementato ad ogni blocco e azzerato all'ultimo), quindi dopo un riavvio il job riprende dal punto in cui si era fermato.
+ * Con più nodi il job viene eseguito da uno solo alla volta, quello che acquisisce il lock url_purge ({@link JobLock}).
+ */
+@Slf4j
+@Service
+public class UrlPurgeService {
+
+    private static final String MARK_DELETED_SQL =
+        "UPDATE shortened_url SET deleted_at = ? WHERE id = ? AND deleted_at IS NULL";
+
+    private static final String SELECT_PENDING_SQL =
+        "SELECT id, deleted_at FROM shortened_url WHERE deleted_at IS NOT NULL ORDER BY deleted_at, id";
+
+    private static final String SELECT_PENDING_BY_USER_SQL =
+        "SELECT short_code, deleted_at, visit_count FROM shortened_url " +
+        "WHERE user_id = ? AND deleted_at IS NOT NULL ORDER BY deleted_at, id";
+
+    private static final String DELETE_VISITS_SQL = "DELETE FROM url_visit WHERE url_id = ? LIMIT ?";
+
+    private static final String DECREMENT_COUNT_SQL =
+        "UPDATE shortened_url SET visit_count = GREATEST(visit_count - ?, 0) WHERE id = ?";
+
+    private static final String RESET_COUNT_SQL = "UPDATE shortened_url SET visit_count = 0 WHERE id = ?";
+
+    private static final String DELETE_HOURLY_SQL = "DELETE FROM url_visit_hourly WHERE url_id = ?";
+
+    private static final String DELETE_DAILY_SQL = "DELETE FROM url_visit_daily WHERE url_id = ?";
+
+    private static final String DELETE_URL_SQL = "DELETE FROM shortened_url WHERE id = ? AND deleted_at IS NOT NULL";
+
+    /**
+     * Nome del job nella tabella job_lock.
+     */
+    private static final String LOCK_NAME = "url_purge";
+
+    /**
+     * Tempo concesso oltre urls.purge.max-run-time prima che il lock di un nodo possa essere preso da un altro.
+     */
+    private static final Duration LOCK_MARGIN = Duration.ofMinutes(1);
+
+    /**
+     * Link marcato come eliminato e in attesa di cancellazione.
+     *
+     * @param id l'identificatore del link
+     * @param deletedAt data e ora dell'eliminazione
+     */
+    private record PendingPurge(long id, LocalDateTime deletedAt) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShortUrlCache urlCache;
+
+    @Autowired
+    private VisitIngestionService ingestionService;
+
+    @Autowired
+    private JobLock jobLock;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Numero massimo di visite cancellate da ogni istruzione DELETE.
+     */
+    @Value("${urls.purge.chunk-size:5000}")
+    private int chunkSize;
+
+    /**
+     * Pausa tra un blocco e il successivo, per lasciare spazio alle altre scritture e alla replica.
+     */
+    @Value("${urls.purge.chunk-pause:50ms}")
+    private Duration chunkPause;
+
+    /**
+     * Durata massima di ogni esecuzione del job; i link rimanenti vengono ripresi all'esecuzione successiva.
+     */
+    @Value("${urls.purge.max-run-time:1m}")
+    private Duration maxRunTime;
+
+    /**
+     * Tempo tra l'eliminazione e la cancellazione della riga del link, se impostato.
+     * Non può essere inferiore al minimo calcolato in {@link #init()}, altrimenti l'avvio fallisce.
+     */
+    @Value("${urls.purge.grace-period:#{null}}")
+    private Duration configuredGracePeriod;
+
+    /**
+     * Tempo minimo tra l'eliminazione e la cancellazione della riga del link, così che le visite
+     * ancora in arrivo dagli altri nodi vengano scritte e poi cancellate, invece di fallire.
+     */
+    private Duration gracePeriod;
+
+    /**
+     * Impedisce a due esecuzioni del job sullo stesso nodo di sovrapporsi.
+     */
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    /**
+     * Link in attesa di cancellazione letti all'ultima esecuzione del job.
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    private Counter deletedVisits;
+
+    private Counter purgedUrls;
+
+    /**
+     * Calcola il periodo di attesa prima della cancellazione dei link e registra le metriche del job.
+     * L'invalidazione della cache vale solo per il nodo che elimina il link: gli altri continuano a risolverlo
+     * fino alla scadenza della propria cache, e ogni visita accodata può essere scritta fino a un intervallo di flush
+     * più le attese dei tentativi ripetuti dopo. Il periodo minimo è la somma delle due durate.
+     */
+    @PostConstruct
+    void init() {
+        Duration minimum = urlCache.getTtl().plus(ingestionService.getMaxWriteDelay());
+        if (configuredGracePeriod != null && configuredGracePeriod.compareTo(minimum) < 0) {
+            throw new IllegalStateException("urls.purge.grace-period (" + configuredGracePeriod + ") deve essere almeno "
+                + minimum + ": redirect.cache.ttl più il ritardo massimo di scrittura delle visite");
+        }
+        gracePeriod = configuredGracePeriod != null ? configuredGracePeriod : minimum;
+        log.info("Periodo di attesa prima della cancellazione definitiva dei link: {}", gracePeriod);
+
+        Gauge.builder("urls.purge.pending", pending, AtomicLong::get)
+            .description("Link eliminati le cui visite non sono ancora state cancellate")
+            .register(meterRegistry);
+        deletedVisits = Counter.builder("urls.purge.visits.deleted")
+            .description("Visite cancellate dal job di eliminazione dei link")
+            .register(meterRegistry);
+        purgedUrls = Counter.builder("urls.purge.completed")
+            .description("Link cancellati definitivamente insieme alle loro visite")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Elimina un link: da questo momento non viene più restituito né reindirizzato,
+     * mentre le sue visite verranno cancellate in background.
+     *
+     * @param url il link da eliminare
+     */
+    public void delete(ShortenedUrl url) {
+        jdbcTemplate.update(MARK_DELETED_SQL, Timestamp.valueOf(LocalDateTime.now()), url.getId());
+        urlCache.invalidate(url.getShortCode());
+    }
+
+    /**
+     * Restituisce lo stato delle eliminazioni in corso per i link di un utente.
+     *
+     * @param userId l'identificatore dell'utente
+     * @return per ogni link eliminato ma non ancora cancellato: codice breve, data di eliminazione e visite rimanenti
+     */
+    public List<Map<String, Object>> getPendingPurges(Long userId) {
+        return jdbcTemplate.query(SELECT_PENDING_BY_USER_SQL, (rs, rowNum) -> {
+            Map<String, Object> purge = new LinkedHashMap<>();
+            purge.put("shortCode", rs.getString("short_code"));
+            purge.put("deletedAt", rs.getTimestamp("deleted_at").toLocalDateTime());
+            purge.put("remainingVisits", rs.getLong("visit_count"));
+            return purge;
+        }, userId);
+    }
+
+    /**
+     * Cancella le visite dei link eliminati, dal più vecchio, entro la durata massima configurata.
+     * I link le cui visite sono esaurite e il cui periodo di attesa è trascorso vengono cancellati definitivamente.
+     */
+    @Scheduled(
+        fixedDelayString = "${urls.purge.interval:10s}",
+        initialDelayString = "${urls.purge.interval:10s}"
+    )
+    public void purge() {
+        if (!runLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!jobLock.tryLock(LOCK_NAME, maxRunTime.plus(LOCK_MARGIN))) {
+                return;
+            }
+            try {
+                purgePending();
+            } finally {
+                jobLock.unlock(LOCK_NAME);
+            }
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private void purgePending() {
+        try {
+            List<PendingPurge> purges = jdbcTemplate.query(SELECT_PENDING_SQL, (rs, rowNum) -> new PendingPurge(
+                rs.getLong("id"),
+                rs.getTimestamp("deleted_at").toLocalDateTime()
+            ));
+            pending.set(purges.size());
+
+            long deadline = System.nanoTime() + maxRunTime.toNanos();
+            for (PendingPurge purge : purges) {
+                if (!purge(purge, deadline)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancella a blocchi le visite di un link e, se possibile, il link stesso.
+     *
+     * @param purge il link da cancellare
+     * @param deadline l'istante, in nanosecondi, oltre il quale il job si ferma
+     * @return false se il tempo a disposizione è esaurito, true altrimenti
+     */
+    private boolean purge(PendingPurge purge, long deadline) throws InterruptedException {
+        while (true) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+
+            int deleted = transactionTemplate.execute(status -> {
+                int rows = jdbcTemplate.update(DELETE_VISITS_SQL, purge.id(), chunkSize);
+                if (rows < chunkSize) {
+                    // il contatore include anche le visite già rimosse dal job di conservazione
+                    jdbcTemplate.update(RESET_COUNT_SQL, purge.id());
+                } else {
+                    jdbcTemplate.update(DECREMENT_COUNT_SQL, rows, purge.id());
+                }
+                return rows;
+            });
+            deletedVisits.increment(deleted);
+
+            if (deleted < chunkSize) {
+                break;
+            }
+            Thread.sleep(chunkPause);
+        }
+
+        // la riga del link viene cancellata solo quando le visite in coda non possono più arrivare
+        if (purge.deletedAt().plus(gracePeriod).isAfter(LocalDateTime.now())) {
+            return true;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update(DELETE_HOURLY_SQL, purge.id());
+                jdbcTemplate.update(DELETE_DAILY_SQL, purge.id());
+                jdbcTemplate.update(DELETE_URL_SQL, purge.id());
+            });
+            purgedUrls.increment();
+            pending.decrementAndGet();
+            log.info("Link {} cancellato definitivamente insieme alle sue visite", purge.id());
+        } catch (DataAccessException e) {
+            // una visita scritta dopo l'ultimo blocco blocca la cancellazione: verrà ritentata alla prossima esecuzione
+            log.warn("Cancellazione del link {} rimandata: {}", purge.id(), e.getMessage());
+        }
+        return true;
+    }
+}
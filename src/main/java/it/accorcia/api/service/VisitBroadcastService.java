@@ -0,0 +1,299 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Servizio di invio in tempo reale delle visite tramite WebSocket.
+ * Le visite non vengono inviate una per una: per ogni codice breve vengono accumulate
+ * per una finestra di tempo configurabile e inviate con un unico messaggio contenente
+ * l'incremento del contatore e le visite più recenti. Le visite ai codici senza iscritti
+ * vengono ignorate subito, senza allocare né serializzare nulla.
+ * Oltre al topic di ogni codice breve, ogni utente può iscriversi a /user/queue/visits e ricevere
+ * con una sola iscrizione, in un unico messaggio per finestra, gli aggiornamenti di tutti i propri link.
+ * I messaggi pubblicati sono contati da websocket.messages.published, per tipo di destinazione (topic, user).
+ */
+@Service
+public class VisitBroadcastService {
+
+    /**
+     * Prefisso dei topic degli aggiornamenti di un singolo codice breve.
+     */
+    public static final String URL_TOPIC_PREFIX = "/topic/url/";
+
+    /**
+     * Coda degli aggiornamenti di tutti i link di un utente, relativa al prefisso delle destinazioni utente.
+     */
+    public static final String USER_QUEUE = "/queue/visits";
+
+    /**
+     * Destinazione a cui si iscrive il client per ricevere la coda {@link #USER_QUEUE}.
+     */
+    private static final String USER_QUEUE_DESTINATION = "/user" + USER_QUEUE;
+
+    /**
+     * Iscrizione di una sessione: al topic di un codice breve oppure alla coda di un utente.
+     *
+     * @param shortCode il codice breve del topic, null per la coda dell'utente
+     * @param userId l'identificatore dell'utente della coda, null per il topic di un codice breve
+     */
+    private record Subscription(String shortCode, Long userId) {
+    }
+
+    /**
+     * Visite accumulate per un codice breve nella finestra corrente.
+     * Viene modificata solo all'interno di {@link ConcurrentHashMap#compute}, quindi da un thread per volta.
+     */
+    private static class PendingBroadcast {
+        /**
+         * Numero di visite nella finestra, incluse quelle non più presenti nel campione.
+         */
+        private long count;
+
+        /**
+         * Visite più recenti della finestra, dalla più vecchia alla più recente.
+         */
+        private final ArrayDeque<PendingVisit> sample = new ArrayDeque<>();
+    }
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Numero massimo di visite incluse in ogni messaggio; il contatore include comunque tutte le visite.
+     */
+    @Value("${visits.broadcast.sample-size:10}")
+    private int sampleSize;
+
+    /**
+     * Numero di iscrizioni attive al topic di ogni codice breve.
+     */
+    private final Map<String, Integer> topicSubscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Numero di iscrizioni attive alla coda di ogni utente.
+     */
+    private final Map<Long, Integer> userSubscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Iscrizioni attive di ogni sessione WebSocket, per id di iscrizione.
+     */
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Visite in attesa di invio sui topic, per codice breve.
+     */
+    private final Map<String, PendingBroadcast> pendingByCode = new ConcurrentHashMap<>();
+
+    /**
+     * Visite in attesa di invio sulle code utente, per utente e poi per codice breve.
+     * Le mappe interne vengono modificate solo all'interno di {@link ConcurrentHashMap#compute}.
+     */
+    private final Map<Long, Map<String, PendingBroadcast>> pendingByUser = new ConcurrentHashMap<>();
+
+    private Counter topicMessages;
+
+    private Counter userMessages;
+
+    /**
+     * Registra le metriche dei messaggi pubblicati e delle iscrizioni attive.
+     */
+    @PostConstruct
+    void init() {
+        topicMessages = publishedCounter("topic");
+        userMessages = publishedCounter("user");
+        Gauge.builder("websocket.subscriptions", topicSubscribers, Map::size)
+            .description("Codici brevi e utenti con almeno un'iscrizione attiva")
+            .tag("destination", "topic")
+            .register(meterRegistry);
+        Gauge.builder("websocket.subscriptions", userSubscribers, Map::size)
+            .description("Codici brevi e utenti con almeno un'iscrizione attiva")
+            .tag("destination", "user")
+            .register(meterRegistry);
+    }
+
+    private Counter publishedCounter(String destination) {
+        return Counter.builder("websocket.messages.published")
+            .description("Messaggi di aggiornamento delle visite pubblicati sul broker")
+            .tag("destination", destination)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Registra una visita da inviare agli iscritti del codice breve e al proprietario del link.
+     *
+     * @param shortCode il codice breve visitato
+     * @param userId l'identificatore del proprietario del link, null se sconosciuto
+     * @param visit la visita
+     */
+    public void record(String shortCode, Long userId, PendingVisit visit) {
+        if (topicSubscribers.containsKey(shortCode)) {
+            pendingByCode.compute(shortCode, (code, broadcast) -> add(broadcast, visit));
+        }
+        if (userId != null && userSubscribers.containsKey(userId)) {
+            pendingByUser.compute(userId, (id, links) -> {
+                if (links == null) {
+                    links = new HashMap<>();
+                }
+                links.compute(shortCode, (code, broadcast) -> add(broadcast, visit));
+                return links;
+            });
+        }
+    }
+
+    private PendingBroadcast add(PendingBroadcast broadcast, PendingVisit visit) {
+        if (broadcast == null) {
+            broadcast = new PendingBroadcast();
+        }
+        broadcast.count++;
+        if (broadcast.sample.size() == sampleSize) {
+            broadcast.sample.pollFirst();
+        }
+        broadcast.sample.addLast(visit);
+        return broadcast;
+    }
+
+    /**
+     * Invia un messaggio per ogni codice breve e per ogni utente con visite accumulate nella finestra appena chiusa.
+     */
+    @Scheduled(fixedDelayString = "${visits.broadcast.window:250ms}")
+    public void flush() {
+        Iterator<String> codes = pendingByCode.keySet().iterator();
+        while (codes.hasNext()) {
+            String shortCode = codes.next();
+            PendingBroadcast broadcast = pendingByCode.remove(shortCode);
+            if (broadcast != null) {
+                messagingTemplate.convertAndSend(URL_TOPIC_PREFIX + shortCode, toMessage(shortCode, broadcast));
+                topicMessages.increment();
+            }
+        }
+
+        Iterator<Long> users = pendingByUser.keySet().iterator();
+        while (users.hasNext()) {
+            Long userId = users.next();
+            Map<String, PendingBroadcast> links = pendingByUser.remove(userId);
+            if (links == null) {
+                continue;
+            }
+            List<Map<String, Object>> updates = new ArrayList<>(links.size());
+            links.forEach((shortCode, broadcast) -> updates.add(toMessage(shortCode, broadcast)));
+            // il nome del principal della sessione è l'id dell'utente, vedi JwtHandshakeHandler
+            messagingTemplate.convertAndSendToUser(userId.toString(), USER_QUEUE, Map.of("updates", updates));
+            userMessages.increment();
+        }
+    }
+
+    /**
+     * Costruisce il messaggio con le visite accumulate per un codice breve.
+     *
+     * @param shortCode il codice breve
+     * @param broadcast le visite accumulate
+     * @return il messaggio con codice breve, incremento del contatore e visite più recenti
+     */
+    private Map<String, Object> toMessage(String shortCode, PendingBroadcast broadcast) {
+        // le visite più recenti vengono inviate per prime
+        List<Map<String, Object>> visits = new ArrayList<>(broadcast.sample.size());
+        broadcast.sample.descendingIterator().forEachRemaining(visit -> visits.add(Map.of(
+            "visitDate", visit.visitDate(),
+            "ipAddress", Objects.toString(visit.ipAddress(), ""),
+            "userAgent", Objects.toString(visit.userAgent(), "")
+        )));
+
+        return Map.of(
+            "shortCode", shortCode,
+            "visitCountDelta", broadcast.count,
+            "visits", visits
+        );
+    }
+
+    /**
+     * Registra una nuova iscrizione al topic di un codice breve o alla coda dell'utente.
+     *
+     * @param event l'evento di iscrizione STOMP
+     */
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        Subscription subscription;
+        if (destination == null) {
+            return;
+        } else if (destination.startsWith(URL_TOPIC_PREFIX)) {
+            String shortCode = destination.substring(URL_TOPIC_PREFIX.length());
+            subscription = new Subscription(shortCode, null);
+            topicSubscribers.merge(shortCode, 1, Integer::sum);
+        } else if (destination.equals(USER_QUEUE_DESTINATION) && event.getUser() != null) {
+            Long userId = Long.valueOf(event.getUser().getName());
+            subscription = new Subscription(null, userId);
+            userSubscribers.merge(userId, 1, Integer::sum);
+        } else {
+            return;
+        }
+        sessions.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>())
+            .put(accessor.getSubscriptionId(), subscription);
+    }
+
+    /**
+     * Rimuove un'iscrizione annullata dal client.
+     *
+     * @param event l'evento di annullamento dell'iscrizione STOMP
+     */
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, Subscription> subscriptions = sessions.get(accessor.getSessionId());
+        if (subscriptions == null) {
+            return;
+        }
+        Subscription subscription = subscriptions.remove(accessor.getSubscriptionId());
+        if (subscription != null) {
+            removeSubscriber(subscription);
+        }
+    }
+
+    /**
+     * Rimuove tutte le iscrizioni di una sessione chiusa.
+     *
+     * @param event l'evento di disconnessione della sessione
+     */
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, Subscription> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::removeSubscriber);
+        }
+    }
+
+    private void removeSubscriber(Subscription subscription) {
+        // a zero iscritti la chiave viene rimossa, così le visite successive vengono ignorate
+        if (subscription.shortCode() != null) {
+            topicSubscribers.computeIfPresent(subscription.shortCode(), (code, count) -> count > 1 ? count - 1 : null);
+        } else {
+            userSubscribers.computeIfPresent(subscription.userId(), (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package it.accorcia.api.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.accorcia.api.util.DataSourceRoute;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Servizio di esportazione in streaming delle visite.
+ * Le righe vengono lette con un cursore JDBC e scritte direttamente sullo stream della risposta,
+ * senza creare entità né mappe intermedie, così che la memoria usata non dipenda dal numero di visite.
+ * Le query vengono instradate al pool delle statistiche ({@link DataSourceRoute#ANALYTICS}).
+ */
+@Service
+public class VisitExportService {
+
+    /**
+     * Formati di esportazione supportati.
+     */
+    public enum ExportFormat {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        ExportFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final String SELECT_VISITS_SQL =
+        "SELECT v.id, s.short_code, v.visit_date, v.ip_address, v.user_agent " +
+        "FROM url_visit v JOIN shortened_url s ON s.id = v.url_id " +
+        "WHERE %s AND v.visit_date BETWEEN ? AND ? " +
+        "ORDER BY v.visit_date DESC, v.id DESC";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Numero di righe richieste al database per ogni round-trip del cursore.
+     */
+    @Value("${visits.export.fetch-size:1000}")
+    private int fetchSize;
+
+    /**
+     * Esporta le visite di un URL accorciato in un intervallo di date.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate la data di inizio dell'intervallo
+     * @param endDate la data di fine dell'intervallo
+     * @param format il formato di esportazione
+     * @param out lo stream su cui scrivere le visite
+     */
+    public void exportUrlVisits(
+        Long urlId,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        ExportFormat format,
+        OutputStream out
+    ) throws IOException {
+        export(SELECT_VISITS_SQL.formatted("v.url_id = ?"), urlId, startDate, endDate, format, out);
+    }
+
+    /**
+     * Esporta le visite di tutti gli URL di un utente in un intervallo di date.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate la data di inizio dell'intervallo
+     * @param endDate la data di fine dell'intervallo
+     * @param format il formato di esportazione
+     * @param out lo stream su cui scrivere le visite
+     */
+    public void exportUserVisits(
+        Long userId,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        ExportFormat format,
+        OutputStream out
+    ) throws IOException {
+        export(SELECT_VISITS_SQL.formatted("s.user_id = ? AND s.deleted_at IS NULL"), userId, startDate, endDate, format, out);
+    }
+
+    private void export(
+        String sql,
+        Long ownerId,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        ExportFormat format,
+        OutputStream out
+    ) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        RowWriter rowWriter = format == ExportFormat.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+
+        try (DataSourceRoute.Scope route = DataSourceRoute.ANALYTICS.use()) {
+            jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                        sql,
+                        ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY
+                    );
+                    // con fetch size positivo il driver legge il result set a blocchi invece che tutto in memoria
+                    ps.setFetchSize(fetchSize);
+                    ps.setLong(1, ownerId);
+                    ps.setTimestamp(2, Timestamp.valueOf(startDate));
+                    ps.setTimestamp(3, Timestamp.valueOf(endDate));
+                    return ps;
+                },
+                rs -> {
+                    try {
+                        rowWriter.write(rs);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            );
+        } catch (UncheckedIOException e) {
+            // il client ha chiuso la connessione: la query viene interrotta
+            throw e.getCause();
+        }
+
+        rowWriter.finish();
+        writer.flush();
+    }
+
+    /**
+     * Scrittore di una riga del result set nel formato di esportazione.
+     */
+    private interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+
+        default void finish() throws IOException {
+        }
+    }
+
+    /**
+     * Scrive le visite in formato CSV con riga di intestazione.
+     */
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        private CsvRowWriter(Writer writer) throws IOException {
+            this.writer = writer;
+            writer.write("id,shortCode,visitDate,ipAddress,userAgent\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            writer.write(Long.toString(rs.getLong(1)));
+            writer.write(',');
+            writeField(rs.getString(2));
+            writer.write(',');
+            writer.write(rs.getTimestamp(3).toLocalDateTime().toString());
+            writer.write(',');
+            writeField(rs.getString(4));
+            writer.write(',');
+            writeField(rs.getString(5));
+            writer.write('\n');
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Scrive le visite in formato NDJSON, un oggetto JSON per riga.
+     */
+    private final class NdjsonRowWriter implements RowWriter {
+        private final JsonGenerator generator;
+
+        private NdjsonRowWriter(Writer writer) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(writer);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // il separatore tra oggetti è il ritorno a capo scritto a mano dopo ogni riga
+            this.generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong(1));
+            generator.writeStringField("shortCode", rs.getString(2));
+            generator.writeStringField("visitDate", rs.getTimestamp(3).toLocalDateTime().toString());
+            generator.writeStringField("ipAddress", rs.getString(4));
+            generator.writeStringField("userAgent", rs.getString(5));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servizio di acquisizione asincrona delle visite.
+ * Il reindirizzamento accoda una {@link PendingVisit} in una coda limitata e risponde subito;
+ * un thread dedicato svuota la coda e scrive le visite sul database con INSERT JDBC in batch.
+ * Alla chiusura dell'applicazione la coda viene svuotata completamente prima di fermare il thread.
+ * I contatori della pipeline sono esposti come metriche visits.ingestion.*.
+ */
+@Slf4j
+@Service
+public class VisitIngestionService {
+
+    /**
+     * Comportamento adottato quando la coda delle visite è piena.
+     */
+    public enum OverflowPolicy {
+        /**
+         * La visita viene scartata immediatamente.
+         */
+        DROP,
+        /**
+         * Il chiamante attende fino a {@code visits.ingestion.block-timeout}, poi la visita viene scartata.
+         */
+        BLOCK,
+        /**
+         * La visita viene scritta in modo sincrono dal thread chiamante.
+         */
+        CALLER_RUNS
+    }
+
+    private static final String INSERT_VISIT_SQL =
+        "INSERT INTO url_visit (visit_date, ip_address, user_agent, url_id) VALUES (?, ?, ?, ?)";
+
+    private static final String INCREMENT_COUNT_SQL =
+        "UPDATE shortened_url SET visit_count = visit_count + ? WHERE id = ?";
+
+    /**
+     * Lunghezza massima delle colonne testuali di url_visit.
+     * I valori più lunghi vengono troncati per non far fallire l'intero batch.
+     */
+    private static final int MAX_COLUMN_LENGTH = 255;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private VisitRollupService rollupService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Numero massimo di visite in attesa di scrittura.
+     */
+    @Value("${visits.ingestion.queue-capacity:100000}")
+    private int queueCapacity;
+
+    /**
+     * Numero massimo di visite scritte con un singolo batch.
+     */
+    @Value("${visits.ingestion.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Tempo massimo di attesa prima di scrivere un batch incompleto.
+     */
+    @Value("${visits.ingestion.flush-interval:200ms}")
+    private Duration flushInterval;
+
+    /**
+     * Comportamento da adottare quando la coda è piena.
+     */
+    @Value("${visits.ingestion.overflow-policy:DROP}")
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * Attesa massima del chiamante con la politica BLOCK.
+     */
+    @Value("${visits.ingestion.block-timeout:50ms}")
+    private Duration blockTimeout;
+
+    /**
+     * Tempo massimo concesso per svuotare la coda alla chiusura dell'applicazione.
+     */
+    @Value("${visits.ingestion.shutdown-timeout:30s}")
+    private Duration shutdownTimeout;
+
+    /**
+     * Numero massimo di tentativi di scrittura di un batch prima di scartarlo.
+     */
+    @Value("${visits.ingestion.max-attempts:5}")
+    private int maxAttempts;
+
+    /**
+     * Attesa prima del secondo tentativo, raddoppiata ad ogni tentativo successivo.
+     */
+    @Value("${visits.ingestion.retry-backoff:100ms}")
+    private Duration retryBackoff;
+
+    private BlockingQueue<PendingVisit> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    private Counter enqueued;
+    private Counter dropped;
+    private Counter rejected;
+    private Counter written;
+    private Counter failed;
+    private Counter retried;
+    private Counter batches;
+
+    /**
+     * Crea la coda, registra le metriche e avvia il thread di scrittura.
+     */
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("visits.ingestion.queued", queue, BlockingQueue::size)
+            .description("Visite in coda in attesa di scrittura")
+            .register(meterRegistry);
+        Gauge.builder("visits.ingestion.queue.capacity", queue, q -> queueCapacity)
+            .description("Capacità della coda delle visite")
+            .register(meterRegistry);
+        enqueued = Counter.builder("visits.ingestion.enqueued")
+            .description("Visite accodate per la scrittura")
+            .register(meterRegistry);
+        dropped = Counter.builder("visits.ingestion.dropped")
+            .tag("reason", "queue-full")
+            .description("Visite scartate senza essere scritte")
+            .register(meterRegistry);
+        rejected = Counter.builder("visits.ingestion.dropped")
+            .tag("reason", "constraint")
+            .description("Visite scartate senza essere scritte")
+            .register(meterRegistry);
+        written = Counter.builder("visits.ingestion.written")
+            .description("Visite scritte sul database")
+            .register(meterRegistry);
+        failed = Counter.builder("visits.ingestion.failed")
+            .description("Visite scartate dopo l'ultimo tentativo di scrittura fallito")
+            .register(meterRegistry);
+        retried = Counter.builder("visits.ingestion.retries")
+            .description("Tentativi di scrittura ripetuti dopo un errore")
+            .register(meterRegistry);
+        batches = Counter.builder("visits.ingestion.batches")
+            .description("Batch di visite scritti sul database")
+            .register(meterRegistry);
+        running = true;
+        writer = new Thread(this::writeLoop, "visit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Ferma il thread di scrittura dopo aver scritto tutte le visite ancora in coda.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(shutdownTimeout.toMillis());
+        if (writer.isAlive()) {
+            log.warn("Scrittura delle visite non completata entro {}, {} visite in coda", shutdownTimeout, queue.size());
+        }
+    }
+
+    /**
+     * Accoda una visita per la scrittura asincrona.
+     * Se la coda è piena si applica la politica configurata.
+     *
+     * @param visit la visita da registrare
+     * @return true se la visita è stata accodata o scritta, false se è stata scartata
+     */
+    public boolean submit(PendingVisit visit) {
+        if (queue.offer(visit)) {
+            enqueued.increment();
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    if (queue.offer(visit, blockTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                        enqueued.increment();
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            case CALLER_RUNS -> {
+                // un solo tentativo: il reindirizzamento non attende le pause tra un tentativo e l'altro
+                flush(List.of(visit), 1);
+                return true;
+            }
+            case DROP -> {
+            }
+        }
+
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Ciclo principale del thread di scrittura.
+     * Accumula visite fino a riempire un batch o fino allo scadere dell'intervallo di flush,
+     * poi le scrive. Alla chiusura continua finché la coda non è vuota.
+     */
+    private void writeLoop() {
+        List<PendingVisit> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingVisit first = queue.poll(flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingVisit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // interruzione usata solo per la chiusura: si scrive quanto accumulato e si svuota la coda
+            }
+
+            queue.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                flush(batch, maxAttempts);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Scrive un gruppo di visite con un'unica INSERT in batch all'interno di una transazione.
+     * Nella stessa transazione incrementa il contatore delle visite di ogni link coinvolto,
+     * con un solo UPDATE per link, e aggiorna i rollup orari e giornalieri.
+     * Se il batch viola un vincolo, tipicamente perché un link è stato cancellato definitivamente mentre le sue visite
+     * erano in coda, le visite vengono riscritte link per link: solo quelle dei link in errore vengono scartate
+     * e conteggiate in visits.ingestion.dropped, mentre le altre vengono scritte normalmente.
+     *
+     * @param visits le visite da scrivere
+     * @param attempts il numero massimo di tentativi per gli errori transitori
+     */
+    private void flush(List<PendingVisit> visits, int attempts) {
+        try {
+            writeWithRetry(visits, attempts);
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Scrittura di {} visite fallita per una violazione di vincolo, si procede link per link: {}",
+                visits.size(), e.getMessage());
+            Map<Long, List<PendingVisit>> byUrl = new TreeMap<>();
+            for (PendingVisit visit : visits) {
+                byUrl.computeIfAbsent(visit.urlId(), id -> new ArrayList<>()).add(visit);
+            }
+            for (Map.Entry<Long, List<PendingVisit>> group : byUrl.entrySet()) {
+                try {
+                    writeWithRetry(group.getValue(), attempts);
+                } catch (DataIntegrityViolationException groupError) {
+                    rejected.increment(group.getValue().size());
+                    log.warn("{} visite del link {} scartate: {}",
+                        group.getValue().size(), group.getKey(), groupError.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Scrive un gruppo di visite, ritentando gli errori transitori (deadlock, connessione non disponibile...)
+     * con attesa crescente; dopo l'ultimo tentativo il gruppo viene scartato e conteggiato come fallito.
+     * Le violazioni di vincolo non cambierebbero ritentando e vengono rilanciate subito al chiamante.
+     *
+     * @param visits le visite da scrivere
+     * @param attempts il numero massimo di tentativi
+     * @throws DataIntegrityViolationException se una visita del gruppo viola un vincolo
+     */
+    private void writeWithRetry(List<PendingVisit> visits, int attempts) {
+        // ordinati per id così che nodi diversi aggiornino le righe sempre nello stesso ordine
+        Map<Long, Integer> increments = new TreeMap<>();
+        for (PendingVisit visit : visits) {
+            increments.merge(visit.urlId(), 1, Integer::sum);
+        }
+
+        long backoff = retryBackoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(visits, increments);
+                written.increment(visits.size());
+                batches.increment();
+                return;
+            } catch (DataIntegrityViolationException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (attempt >= attempts) {
+                    failed.increment(visits.size());
+                    log.error("Scrittura di {} visite fallita dopo {} tentativi, visite scartate", visits.size(), attempt, e);
+                    return;
+                }
+                retried.increment();
+                log.warn("Scrittura di {} visite fallita (tentativo {} di {}), nuovo tentativo tra {} ms: {}",
+                    visits.size(), attempt, attempts, backoff, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                // chiusura in corso: si ritenta senza attendere, l'interruzione resta per il ciclo di scrittura
+                Thread.currentThread().interrupt();
+            }
+            backoff *= 2;
+        }
+    }
+
+    private void write(List<PendingVisit> visits, Map<Long, Integer> increments) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(
+                INSERT_VISIT_SQL,
+                visits,
+                visits.size(),
+                (ps, visit) -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(visit.visitDate()));
+                    ps.setString(2, truncate(visit.ipAddress()));
+                    ps.setString(3, truncate(visit.userAgent()));
+                    ps.setLong(4, visit.urlId());
+                }
+            );
+            jdbcTemplate.batchUpdate(
+                INCREMENT_COUNT_SQL,
+                increments.entrySet(),
+                increments.size(),
+                (ps, increment) -> {
+                    ps.setInt(1, increment.getValue());
+                    ps.setLong(2, increment.getKey());
+                }
+            );
+            rollupService.apply(visits);
+        });
+    }
+
+    /**
+     * Restituisce il ritardo massimo tra il prelievo di una visita dalla coda e la sua scrittura:
+     * l'intervallo di flush più le attese di tutti i tentativi ripetuti. Non include il tempo passato in coda.
+     *
+     * @return il ritardo massimo di scrittura
+     */
+    public Duration getMaxWriteDelay() {
+        Duration delay = flushInterval;
+        Duration backoff = retryBackoff;
+        for (int attempt = 1; attempt < maxAttempts; attempt++) {
+            delay = delay.plus(backoff);
+            backoff = backoff.multipliedBy(2);
+        }
+        return delay;
+    }
+
+    private static String truncate(String value) {
+        return value != null && value.length() > MAX_COLUMN_LENGTH ? value.substring(0, MAX_COLUMN_LENGTH) : value;
+    }
+}
@@ -0,0 +1,85 @@
+package it.accorcia.api.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Job di manutenzione delle partizioni mensili di url_visit.
+ * Attivo solo con visits.partitioning.enabled=true, dopo che la migrazione in db/partitioning
+ * ha partizionato la tabella: crea in anticipo le partizioni dei mesi successivi dividendo
+ * la partizione finale p_future, che essendo vuota o quasi viene riorganizzata senza copiare dati.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "visits.partitioning.enabled", havingValue = "true")
+public class VisitPartitionMaintenanceService {
+
+    private static final String SELECT_PARTITIONS_SQL =
+        "SELECT PARTITION_NAME FROM information_schema.PARTITIONS " +
+        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'url_visit' AND PARTITION_NAME IS NOT NULL";
+
+    private static final String SPLIT_FUTURE_SQL =
+        "ALTER TABLE url_visit REORGANIZE PARTITION p_future INTO (" +
+        "PARTITION %s VALUES LESS THAN ('%s'), " +
+        "PARTITION p_future VALUES LESS THAN (MAXVALUE))";
+
+    /**
+     * Formato del nome delle partizioni mensili, ad esempio p202601 per gennaio 2026.
+     */
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Numero di mesi successivi a quello corrente per cui la partizione deve già esistere.
+     */
+    @Value("${visits.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    /**
+     * Verifica le partizioni all'avvio, così che il mese corrente sia coperto anche dopo un lungo fermo.
+     */
+    @PostConstruct
+    void init() {
+        ensurePartitions();
+    }
+
+    /**
+     * Crea le partizioni mensili mancanti fino a visits.partitioning.months-ahead mesi da oggi.
+     * Le partizioni vengono aggiunte in ordine crescente, a partire dal mese successivo
+     * all'ultima partizione mensile esistente o dal mese corrente se non ce ne sono.
+     */
+    @Scheduled(cron = "${visits.partitioning.cron:0 0 3 * * *}")
+    public void ensurePartitions() {
+        List<String> partitions = jdbcTemplate.queryForList(SELECT_PARTITIONS_SQL, String.class);
+        if (!partitions.contains("p_future")) {
+            log.warn("La tabella url_visit non è partizionata: eseguire la migrazione in db/partitioning");
+            return;
+        }
+
+        YearMonth next = partitions.stream()
+            .filter(name -> name.matches("p\\d{6}"))
+            .map(name -> YearMonth.parse(name, PARTITION_NAME))
+            .max(YearMonth::compareTo)
+            .map(last -> last.plusMonths(1))
+            .orElse(YearMonth.now());
+
+        YearMonth last = YearMonth.now().plusMonths(monthsAhead);
+        for (YearMonth month = next; !month.isAfter(last); month = month.plusMonths(1)) {
+            String name = month.format(PARTITION_NAME);
+            jdbcTemplate.execute(SPLIT_FUTURE_SQL.formatted(name, month.plusMonths(1).atDay(1)));
+            log.info("Creata la partizione {} di url_visit", name);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package it.accorcia.api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Job di conservazione delle visite grezze.
+ * Le visite più vecchie di visits.retention.max-age vengono cancellate da url_visit; conteggi e visitatori unici
+ * restano disponibili nei rollup giornalieri, che le statistiche usano già per gli intervalli lunghi.
+ * Prima della cancellazione il job verifica che ogni coppia link-giorno del blocco abbia il proprio rollup giornaliero.
+ * Se manca (ad esempio per visite precedenti ai rollup di una ricostruzione interrotta) tutte le visite grezze di quel giorno
+ * vengono compattate nei rollup nella stessa transazione in cui viene cancellato il blocco, così che un giorno sia
+ * sempre compattato per intero o per niente. Le visite vengono lette e cancellate per intervalli di id,
+ * a blocchi piccoli e con una pausa tra un blocco e l'altro, entro una durata massima per esecuzione:
+ * ogni transazione blocca solo le righe vecchie del proprio intervallo e non quelle in inserimento.
+ * Il job non viene eseguito finché la ricostruzione dei rollup in background non è completa, altrimenti
+ * cancellerebbe le visite di giorni con un rollup solo parziale.
+ * Dopo le visite grezze vengono cancellati anche i rollup orari dei giorni interi anteriori al periodo di conservazione:
+ * per quei giorni le statistiche usano i rollup giornalieri. Con più nodi il job viene eseguito da uno solo,
+ * quello che acquisisce il lock visit_retention sul database ({@link JobLock}).
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "visits.retention.enabled", havingValue = "true")
+public class VisitRetentionService {
+
+    private static final String SELECT_CHUNK_SQL =
+        "SELECT id, url_id, visit_date FROM url_visit WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_DAILY_SQL =
+        "SELECT url_id, bucket_start FROM url_visit_daily WHERE bucket_start BETWEEN ? AND ? AND url_id IN (%s)";
+
+    private static final String SELECT_DAY_PAGE_SQL =
+        "SELECT id, visit_date, ip_address FROM url_visit " +
+        "WHERE url_id = ? AND visit_date < ? AND (visit_date > ? OR (visit_date = ? AND id > ?)) " +
+        "ORDER BY visit_date, id LIMIT ?";
+
+    private static final String DELETE_CHUNK_SQL =
+        "DELETE FROM url_visit WHERE id >= ? AND id <= ? AND visit_date < ?";
+
+    private static final String DELETE_HOURLY_SQL = "DELETE FROM url_visit_hourly WHERE bucket_start < ? LIMIT ?";
+
+    /**
+     * Nome del job nella tabella job_lock.
+     */
+    private static final String LOCK_NAME = "visit_retention";
+
+    /**
+     * Tempo concesso oltre visits.retention.max-run-time prima che il lock di un nodo possa essere preso da un altro.
+     */
+    private static final Duration LOCK_MARGIN = Duration.ofMinutes(5);
+
+    /**
+     * Coppia link-giorno di un rollup giornaliero.
+     *
+     * @param urlId l'identificatore del link
+     * @param day l'inizio del giorno
+     */
+    private record Day(long urlId, LocalDateTime day) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private VisitRollupService rollupService;
+
+    @Autowired
+    private JobLock jobLock;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Età massima delle visite grezze; le visite più vecchie vengono cancellate.
+     */
+    @Value("${visits.retention.max-age:90d}")
+    private Duration maxAge;
+
+    /**
+     * Numero di visite lette e cancellate per ogni blocco.
+     */
+    @Value("${visits.retention.chunk-size:2000}")
+    private int chunkSize;
+
+    /**
+     * Pausa tra un blocco e il successivo, per non competere con le scritture delle visite.
+     */
+    @Value("${visits.retention.chunk-pause:100ms}")
+    private Duration chunkPause;
+
+    /**
+     * Durata massima di ogni esecuzione; le visite rimanenti vengono cancellate all'esecuzione successiva.
+     */
+    @Value("${visits.retention.max-run-time:10m}")
+    private Duration maxRunTime;
+
+    /**
+     * Impedisce a due esecuzioni del job sullo stesso nodo di sovrapporsi; tra nodi diversi provvede {@link JobLock}.
+     */
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    /**
+     * Visite cancellate nell'ultima esecuzione completata o interrotta.
+     */
+    private final AtomicLong lastRunDeleted = new AtomicLong();
+
+    private Counter compactedVisits;
+
+    private Counter deletedVisits;
+
+    private Counter deletedHourly;
+
+    /**
+     * Registra le metriche del job.
+     */
+    @PostConstruct
+    void init() {
+        compactedVisits = Counter.builder("visits.retention.compacted")
+            .description("Visite grezze compattate nei rollup prima della cancellazione perché prive di rollup")
+            .register(meterRegistry);
+        deletedVisits = Counter.builder("visits.retention.deleted")
+            .description("Visite grezze cancellate perché più vecchie del periodo di conservazione")
+            .register(meterRegistry);
+        deletedHourly = Counter.builder("visits.retention.hourly.deleted")
+            .description("Rollup orari cancellati perché anteriori al periodo di conservazione")
+            .register(meterRegistry);
+        Gauge.builder("visits.retention.last.run.deleted", lastRunDeleted, AtomicLong::get)
+            .description("Visite grezze cancellate nell'ultima esecuzione del job di conservazione")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Cancella le visite più vecchie del periodo di conservazione, dalla più vecchia,
+     * finché non si incontra una visita più recente o non scade la durata massima,
+     * e poi i rollup orari dei giorni ormai coperti solo dai rollup giornalieri.
+     */
+    @Scheduled(cron = "${visits.retention.cron:0 30 3 * * *}")
+    public void enforce() {
+        if (!rollupService.isBackfillComplete()) {
+            log.info("Conservazione delle visite rinviata: ricostruzione dei rollup non ancora completata");
+            return;
+        }
+        if (!runLock.tryLock()) {
+            return;
+        }
+        try {
+            // il lock scade dopo la durata massima più un margine per il blocco in corso alla scadenza
+            if (!jobLock.tryLock(LOCK_NAME, maxRunTime.plus(LOCK_MARGIN))) {
+                log.info("Conservazione delle visite già in corso su un altro nodo");
+                return;
+            }
+            try {
+                run();
+            } finally {
+                jobLock.unlock(LOCK_NAME);
+            }
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private void run() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(maxAge);
+        long deadline = System.nanoTime() + maxRunTime.toNanos();
+        long deleted = 0;
+        long compacted = 0;
+        long hourlyDeleted = 0;
+        try {
+            long lastId = 0;
+            while (System.nanoTime() < deadline) {
+                Set<Day> days = new HashSet<>();
+                long[] range = {Long.MAX_VALUE, 0};
+                boolean[] reachedCutoff = {false};
+                long[] maxId = {lastId};
+                jdbcTemplate.query(SELECT_CHUNK_SQL, rs -> {
+                    long id = rs.getLong("id");
+                    maxId[0] = id;
+                    LocalDateTime visitDate = rs.getTimestamp("visit_date").toLocalDateTime();
+                    if (!visitDate.isBefore(cutoff)) {
+                        // gli id crescono con la data: le visite successive sono quasi tutte più recenti
+                        reachedCutoff[0] = true;
+                        return;
+                    }
+                    range[0] = Math.min(range[0], id);
+                    range[1] = Math.max(range[1], id);
+                    long urlId = rs.getLong("url_id");
+                    // le visite senza link vengono cancellate senza passare dai rollup
+                    if (!rs.wasNull()) {
+                        days.add(new Day(urlId, visitDate.truncatedTo(ChronoUnit.DAYS)));
+                    }
+                }, lastId, chunkSize);
+
+                if (range[1] > 0) {
+                    Set<Day> missing = days.isEmpty() ? Set.of() : withoutRollup(days);
+                    long[] result = transactionTemplate.execute(status -> {
+                        long folded = 0;
+                        for (Day day : missing) {
+                            folded += compact(day);
+                        }
+                        int rows = jdbcTemplate.update(DELETE_CHUNK_SQL, range[0], range[1], Timestamp.valueOf(cutoff));
+                        return new long[]{folded, rows};
+                    });
+                    compactedVisits.increment(result[0]);
+                    deletedVisits.increment(result[1]);
+                    compacted += result[0];
+                    deleted += result[1];
+                }
+
+                if (reachedCutoff[0] || maxId[0] == lastId) {
+                    break;
+                }
+                lastId = maxId[0];
+                Thread.sleep(chunkPause);
+            }
+
+            // i rollup orari vengono cancellati per giorni interi, gli stessi che le statistiche leggono dai rollup giornalieri
+            Timestamp hourlyCutoff = Timestamp.valueOf(cutoff.truncatedTo(ChronoUnit.DAYS));
+            while (System.nanoTime() < deadline) {
+                int rows = jdbcTemplate.update(DELETE_HOURLY_SQL, hourlyCutoff, chunkSize);
+                deletedHourly.increment(rows);
+                hourlyDeleted += rows;
+                if (rows < chunkSize) {
+                    break;
+                }
+                Thread.sleep(chunkPause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lastRunDeleted.set(deleted);
+        }
+
+        if (deleted > 0 || hourlyDeleted > 0) {
+            log.info("Conservazione delle visite: {} visite anteriori a {} cancellate, {} compattate nei rollup, {} rollup orari cancellati",
+                deleted, cutoff.toLocalDate(), compacted, hourlyDeleted);
+        }
+    }
+
+    /**
+     * Restituisce i giorni del blocco che non hanno ancora un rollup giornaliero.
+     *
+     * @param days le coppie link-giorno delle visite del blocco
+     * @return le coppie da compattare nei rollup prima della cancellazione
+     */
+    private Set<Day> withoutRollup(Set<Day> days) {
+        Set<Long> urlIds = new HashSet<>();
+        LocalDateTime from = LocalDateTime.MAX;
+        LocalDateTime to = LocalDateTime.MIN;
+        for (Day day : days) {
+            urlIds.add(day.urlId());
+            from = day.day().isBefore(from) ? day.day() : from;
+            to = day.day().isAfter(to) ? day.day() : to;
+        }
+
+        List<Object> args = new ArrayList<>(urlIds.size() + 2);
+        args.add(Timestamp.valueOf(from));
+        args.add(Timestamp.valueOf(to));
+        args.addAll(urlIds);
+        Set<Day> missing = new HashSet<>(days);
+        jdbcTemplate.query(
+            SELECT_DAILY_SQL.formatted(String.join(", ", Collections.nCopies(urlIds.size(), "?"))),
+            rs -> {
+                missing.remove(new Day(rs.getLong("url_id"), rs.getTimestamp("bucket_start").toLocalDateTime()));
+            },
+            args.toArray()
+        );
+        return missing;
+    }
+
+    /**
+     * Compatta nei rollup tutte le visite grezze di un link in un giorno, a pagine di chunk-size visite.
+     * Va invocato all'interno della transazione che cancella il blocco.
+     *
+     * @param day il link e il giorno da compattare
+     * @return il numero di visite compattate
+     */
+    private long compact(Day day) {
+        Timestamp end = Timestamp.valueOf(day.day().plusDays(1));
+        Timestamp lastDate = Timestamp.valueOf(day.day().minusNanos(1000));
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<PendingVisit> page = new ArrayList<>(chunkSize);
+            long[] lastKey = {lastId};
+            Timestamp[] lastKeyDate = {lastDate};
+            jdbcTemplate.query(SELECT_DAY_PAGE_SQL, rs -> {
+                lastKey[0] = rs.getLong("id");
+                lastKeyDate[0] = rs.getTimestamp("visit_date");
+                page.add(new PendingVisit(
+                    day.urlId(),
+                    lastKeyDate[0].toLocalDateTime(),
+                    rs.getString("ip_address"),
+                    null
+                ));
+            }, day.urlId(), end, lastDate, lastDate, lastId, chunkSize);
+
+            if (page.isEmpty()) {
+                return total;
+            }
+            rollupService.apply(page);
+            total += page.size();
+            lastId = lastKey[0];
+            lastDate = lastKeyDate[0];
+        }
+    }
+}
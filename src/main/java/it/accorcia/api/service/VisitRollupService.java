@@ -0,0 +1,286 @@
+package it.accorcia.api.service;
+
+import it.accorcia.api.util.HyperLogLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Servizio che mantiene i rollup orari e giornalieri delle visite.
+ * I rollup vengono aggiornati in modo incrementale dal servizio di acquisizione,
+ * nella stessa transazione in cui vengono scritte le visite, così che conteggi
+ * e serie temporali delle statistiche non debbano mai leggere le singole visite.
+ * Le visite scritte prima dell'introduzione dei rollup vengono applicate in background da un thread dedicato,
+ * che tiene traccia dell'avanzamento in visit_rollup_backfill (vedi {@link #backfill()}).
+ */
+@Slf4j
+@Service
+public class VisitRollupService {
+
+    private static final String UPSERT_HOURLY_SQL =
+        "INSERT INTO url_visit_hourly (url_id, bucket_start, visit_count) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE visit_count = visit_count + VALUES(visit_count)";
+
+    private static final String UPSERT_DAILY_SQL =
+        "INSERT INTO url_visit_daily (url_id, bucket_start, visit_count, ip_sketch) VALUES (?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE visit_count = visit_count + VALUES(visit_count), ip_sketch = VALUES(ip_sketch)";
+
+    private static final String SELECT_DAILY_SKETCHES_SQL =
+        "SELECT url_id, bucket_start, ip_sketch FROM url_visit_daily WHERE ";
+
+    private static final String SELECT_RAW_VISITS_SQL =
+        "SELECT id, url_id, visit_date, ip_address FROM url_visit WHERE id > ? AND id <= ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_BACKFILL_PROGRESS_SQL =
+        "SELECT last_id, end_id FROM visit_rollup_backfill WHERE name = 'url_visit' FOR UPDATE";
+
+    private static final String UPDATE_BACKFILL_PROGRESS_SQL =
+        "UPDATE visit_rollup_backfill SET last_id = ? WHERE name = 'url_visit'";
+
+    private static final String COUNT_BACKFILL_PENDING_SQL =
+        "SELECT COUNT(*) FROM visit_rollup_backfill WHERE last_id < end_id";
+
+    /**
+     * Tempo massimo di attesa della fine di un blocco della ricostruzione alla chiusura dell'applicazione.
+     */
+    private static final Duration BACKFILL_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Numero massimo di giorni di cui leggere gli sketch con una singola query.
+     */
+    private static final int SKETCH_QUERY_CHUNK = 100;
+
+    /**
+     * Chiave di un rollup: URL accorciato e inizio dell'intervallo.
+     * L'ordinamento naturale viene usato per aggiornare le righe sempre nello stesso ordine.
+     */
+    private record Bucket(long urlId, LocalDateTime start) implements Comparable<Bucket> {
+        private static final Comparator<Bucket> ORDER =
+            Comparator.comparingLong(Bucket::urlId).thenComparing(Bucket::start);
+
+        @Override
+        public int compareTo(Bucket other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    /**
+     * Incremento da applicare a un rollup giornaliero.
+     */
+    private static final class DailyDelta {
+        private long visitCount;
+        private final HyperLogLog ipSketch = new HyperLogLog();
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Se true, all'avvio questo nodo partecipa alla ricostruzione dei rollup dalle visite precedenti ai rollup.
+     */
+    @Value("${visits.rollup.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    /**
+     * Numero di visite lette per ogni passo della ricostruzione iniziale.
+     */
+    @Value("${visits.rollup.backfill-chunk-size:5000}")
+    private int backfillChunkSize;
+
+    private Thread backfillThread;
+
+    /**
+     * Avvia la ricostruzione dei rollup in background se ci sono ancora visite da applicare,
+     * così che l'avvio dell'applicazione non attenda la lettura di tutta url_visit.
+     */
+    @PostConstruct
+    void startBackfill() {
+        if (!backfillOnStartup || isBackfillComplete()) {
+            return;
+        }
+        backfillThread = new Thread(this::backfill, "visit-rollup-backfill");
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+    }
+
+    /**
+     * Interrompe la ricostruzione al termine del blocco in corso; riprenderà dal punto raggiunto al prossimo avvio.
+     */
+    @PreDestroy
+    void stopBackfill() throws InterruptedException {
+        if (backfillThread != null) {
+            backfillThread.interrupt();
+            backfillThread.join(BACKFILL_SHUTDOWN_TIMEOUT.toMillis());
+        }
+    }
+
+    /**
+     * Verifica se tutte le visite precedenti ai rollup sono state applicate ai rollup.
+     * Finché non lo sono, statistiche e conteggi dei rollup possono essere incompleti.
+     *
+     * @return true se la ricostruzione è completa
+     */
+    public boolean isBackfillComplete() {
+        Integer pending = jdbcTemplate.queryForObject(COUNT_BACKFILL_PENDING_SQL, Integer.class);
+        return pending == null || pending == 0;
+    }
+
+    /**
+     * Applica ai rollup le visite scritte prima della loro introduzione, cioè quelle fino a end_id
+     * di visit_rollup_backfill; le visite successive vengono già applicate dal servizio di acquisizione.
+     * Ogni blocco viene letto, applicato e registrato in last_id nella stessa transazione, tenendo il lock
+     * sulla riga di avanzamento: i nodi avviati insieme si alternano sui blocchi senza applicarli due volte,
+     * e una ricostruzione interrotta riprende dall'ultimo blocco completato.
+     */
+    void backfill() {
+        log.info("Ricostruzione dei rollup delle visite avviata, statistiche incomplete fino al termine");
+        long total = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Integer applied = transactionTemplate.execute(status -> backfillChunk());
+                if (applied == null || applied == 0) {
+                    log.info("Ricostruzione dei rollup delle visite completata, {} visite applicate da questo nodo", total);
+                    return;
+                }
+                total += applied;
+            }
+            log.info("Ricostruzione dei rollup delle visite sospesa dopo {} visite, riprenderà al prossimo avvio", total);
+        } catch (RuntimeException e) {
+            log.error("Ricostruzione dei rollup delle visite interrotta dopo {} visite, riprenderà al prossimo avvio", total, e);
+        }
+    }
+
+    /**
+     * Applica ai rollup il blocco successivo di visite da ricostruire.
+     * Va invocato all'interno di una transazione.
+     *
+     * @return il numero di visite applicate, 0 se la ricostruzione è completa
+     */
+    private int backfillChunk() {
+        long[] progress = jdbcTemplate.queryForObject(
+            SELECT_BACKFILL_PROGRESS_SQL,
+            (rs, rowNum) -> new long[]{rs.getLong("last_id"), rs.getLong("end_id")}
+        );
+        long lastId = progress[0];
+        long endId = progress[1];
+        if (lastId >= endId) {
+            return 0;
+        }
+
+        List<PendingVisit> chunk = new ArrayList<>(backfillChunkSize);
+        long[] maxId = {lastId};
+        jdbcTemplate.query(SELECT_RAW_VISITS_SQL, rs -> {
+            maxId[0] = rs.getLong("id");
+            chunk.add(new PendingVisit(
+                rs.getLong("url_id"),
+                rs.getTimestamp("visit_date").toLocalDateTime(),
+                rs.getString("ip_address"),
+                null
+            ));
+        }, lastId, endId, backfillChunkSize);
+
+        if (chunk.isEmpty()) {
+            // le visite rimanenti sono state cancellate nel frattempo
+            jdbcTemplate.update(UPDATE_BACKFILL_PROGRESS_SQL, endId);
+            return 0;
+        }
+        apply(chunk);
+        jdbcTemplate.update(UPDATE_BACKFILL_PROGRESS_SQL, maxId[0]);
+        return chunk.size();
+    }
+
+    /**
+     * Applica ai rollup orari e giornalieri le visite di un batch.
+     * Deve essere invocato all'interno della transazione che scrive le visite.
+     *
+     * @param visits le visite appena scritte
+     */
+    public void apply(List<PendingVisit> visits) {
+        Map<Bucket, Long> hourly = new TreeMap<>();
+        Map<Bucket, DailyDelta> daily = new TreeMap<>();
+        for (PendingVisit visit : visits) {
+            hourly.merge(new Bucket(visit.urlId(), visit.visitDate().truncatedTo(ChronoUnit.HOURS)), 1L, Long::sum);
+            DailyDelta delta = daily.computeIfAbsent(
+                new Bucket(visit.urlId(), visit.visitDate().truncatedTo(ChronoUnit.DAYS)),
+                bucket -> new DailyDelta()
+            );
+            delta.visitCount++;
+            delta.ipSketch.add(visit.ipAddress());
+        }
+
+        jdbcTemplate.batchUpdate(
+            UPSERT_HOURLY_SQL,
+            hourly.entrySet(),
+            hourly.size(),
+            (ps, entry) -> {
+                ps.setLong(1, entry.getKey().urlId());
+                ps.setTimestamp(2, Timestamp.valueOf(entry.getKey().start()));
+                ps.setLong(3, entry.getValue());
+            }
+        );
+
+        // gli sketch esistenti vengono letti con lock e uniti in memoria prima della riscrittura
+        Map<Bucket, byte[]> existing = loadSketchesForUpdate(new ArrayList<>(daily.keySet()));
+        jdbcTemplate.batchUpdate(
+            UPSERT_DAILY_SQL,
+            daily.entrySet(),
+            daily.size(),
+            (ps, entry) -> {
+                HyperLogLog sketch = HyperLogLog.fromBytes(existing.get(entry.getKey()));
+                sketch.merge(entry.getValue().ipSketch);
+                ps.setLong(1, entry.getKey().urlId());
+                ps.setTimestamp(2, Timestamp.valueOf(entry.getKey().start()));
+                ps.setLong(3, entry.getValue().visitCount);
+                ps.setBytes(4, sketch.toBytes());
+            }
+        );
+    }
+
+    /**
+     * Legge con SELECT ... FOR UPDATE gli sketch dei rollup giornalieri già esistenti.
+     *
+     * @param buckets i giorni di cui leggere gli sketch
+     * @return gli sketch serializzati indicizzati per giorno
+     */
+    private Map<Bucket, byte[]> loadSketchesForUpdate(List<Bucket> buckets) {
+        Map<Bucket, byte[]> sketches = new HashMap<>();
+        for (int from = 0; from < buckets.size(); from += SKETCH_QUERY_CHUNK) {
+            List<Bucket> chunk = buckets.subList(from, Math.min(from + SKETCH_QUERY_CHUNK, buckets.size()));
+            StringBuilder sql = new StringBuilder(SELECT_DAILY_SKETCHES_SQL);
+            List<Object> args = new ArrayList<>(chunk.size() * 2);
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : " OR ").append("(url_id = ? AND bucket_start = ?)");
+                args.add(chunk.get(i).urlId());
+                args.add(Timestamp.valueOf(chunk.get(i).start()));
+            }
+            sql.append(" FOR UPDATE");
+
+            jdbcTemplate.query(sql.toString(), rs -> {
+                sketches.put(
+                    new Bucket(rs.getLong("url_id"), rs.getTimestamp("bucket_start").toLocalDateTime()),
+                    rs.getBytes("ip_sketch")
+                );
+            }, args.toArray());
+        }
+        return sketches;
+    }
+}
@@ -0,0 +1,206 @@
+package it.accorcia.api.service;
+
+import it.accorcia.api.repository.UrlVisitDailyRepository;
+import it.accorcia.api.repository.UrlVisitHourlyRepository;
+import it.accorcia.api.util.DataSourceRoute;
+import it.accorcia.api.util.HyperLogLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Servizio che calcola le statistiche di visita a partire dai rollup orari e giornalieri.
+ * I conteggi hanno granularità oraria: un intervallo viene esteso all'inizio dell'ora in cui comincia.
+ * Con la conservazione delle visite attiva i rollup orari anteriori al periodo di conservazione vengono cancellati:
+ * per quei giorni i conteggi vengono dai rollup giornalieri, con granularità giornaliera, e la serie oraria è vuota.
+ * Le query vengono instradate al pool delle statistiche ({@link DataSourceRoute#ANALYTICS}).
+ */
+@Service
+public class VisitStatsService {
+
+    /**
+     * Granularità della serie temporale restituita dalle statistiche.
+     */
+    public enum Granularity {
+        HOUR,
+        DAY
+    }
+
+    @Autowired
+    private UrlVisitHourlyRepository hourlyRepository;
+
+    @Autowired
+    private UrlVisitDailyRepository dailyRepository;
+
+    /**
+     * Ampiezza massima di un intervallo per cui, se non specificato, si usa la serie oraria.
+     */
+    @Value("${visits.stats.hourly-max-range:2d}")
+    private Duration hourlyMaxRange;
+
+    /**
+     * Se true i rollup orari anteriori a visits.retention.max-age vengono cancellati dal job di conservazione.
+     */
+    @Value("${visits.retention.enabled:false}")
+    private boolean retentionEnabled;
+
+    @Value("${visits.retention.max-age:90d}")
+    private Duration retentionMaxAge;
+
+    /**
+     * Calcola le statistiche di un singolo URL accorciato.
+     *
+     * @param urlId l'identificatore dell'URL accorciato
+     * @param startDate inizio dell'intervallo
+     * @param endDate fine dell'intervallo
+     * @param granularity granularità della serie, null per sceglierla in base all'ampiezza dell'intervallo
+     * @return una mappa con conteggio, stima dei visitatori unici e serie temporale
+     */
+    public Map<String, Object> getUrlStats(
+        Long urlId,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        Granularity granularity
+    ) {
+        try (DataSourceRoute.Scope route = DataSourceRoute.ANALYTICS.use()) {
+            Granularity resolved = resolveGranularity(granularity, startDate, endDate);
+
+            HyperLogLog uniqueVisitors = new HyperLogLog();
+            dailyRepository.findSketchesByUrlAndDateRange(urlId, startOfDay(startDate), endDate)
+                .forEach(sketch -> uniqueVisitors.merge(HyperLogLog.fromBytes(sketch)));
+
+            List<Map<String, Object>> series = resolved == Granularity.HOUR
+                ? hourlyRepository.findSeriesByUrlAndDateRange(urlId, startOfHour(startDate), endDate)
+                : dailyRepository.findSeriesByUrlAndDateRange(urlId, startOfDay(startDate), endDate);
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("visitCount", sumVisits(urlId, startDate, endDate));
+            stats.put("uniqueVisitors", uniqueVisitors.estimate());
+            stats.put("granularity", resolved);
+            stats.put("series", toSeries(series));
+            return stats;
+        }
+    }
+
+    /**
+     * Calcola le statistiche complessive di tutti gli URL di un utente.
+     *
+     * @param userId l'identificatore dell'utente proprietario degli URL
+     * @param startDate inizio dell'intervallo
+     * @param endDate fine dell'intervallo
+     * @param granularity granularità della serie, null per sceglierla in base all'ampiezza dell'intervallo
+     * @return una mappa con conteggio totale, conteggio per shortlink e serie temporale
+     */
+    public Map<String, Object> getAccountStats(
+        Long userId,
+        LocalDateTime startDate,
+        LocalDateTime endDate,
+        Granularity granularity
+    ) {
+        try (DataSourceRoute.Scope route = DataSourceRoute.ANALYTICS.use()) {
+            Granularity resolved = resolveGranularity(granularity, startDate, endDate);
+
+            Map<String, Long> visitDetailedCounter = countVisitsByShortCode(userId, startDate, endDate);
+
+            List<Map<String, Object>> series = resolved == Granularity.HOUR
+                ? hourlyRepository.findSeriesByUserAndDateRange(userId, startOfHour(startDate), endDate)
+                : dailyRepository.findSeriesByUserAndDateRange(userId, startOfDay(startDate), endDate);
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("visitCount", visitDetailedCounter.values().stream().mapToLong(Long::longValue).sum());
+            stats.put("visitDetailedCounter", visitDetailedCounter);
+            stats.put("granularity", resolved);
+            stats.put("series", toSeries(series));
+            return stats;
+        }
+    }
+
+    /**
+     * Somma le visite di un URL dai rollup orari e, per i giorni di cui non sono più conservati, da quelli giornalieri.
+     */
+    private long sumVisits(Long urlId, LocalDateTime startDate, LocalDateTime endDate) {
+        LocalDateTime hourlyFrom = hourlyRetainedFrom();
+        if (!startOfHour(startDate).isBefore(hourlyFrom)) {
+            return hourlyRepository.sumVisitsByUrlAndDateRange(urlId, startOfHour(startDate), endDate);
+        }
+        long total = dailyRepository.sumVisitsByUrlAndDateRange(
+            urlId,
+            startOfDay(startDate),
+            lastDailyBucket(endDate, hourlyFrom)
+        );
+        if (!endDate.isBefore(hourlyFrom)) {
+            total += hourlyRepository.sumVisitsByUrlAndDateRange(urlId, hourlyFrom, endDate);
+        }
+        return total;
+    }
+
+    /**
+     * Conta le visite per shortlink di un utente dai rollup orari e, per i giorni di cui non sono più conservati,
+     * da quelli giornalieri.
+     */
+    private Map<String, Long> countVisitsByShortCode(Long userId, LocalDateTime startDate, LocalDateTime endDate) {
+        LocalDateTime hourlyFrom = hourlyRetainedFrom();
+        if (!startOfHour(startDate).isBefore(hourlyFrom)) {
+            return toCounts(hourlyRepository.countVisitsByUserAndDateRange(userId, startOfHour(startDate), endDate));
+        }
+        Map<String, Long> counts = toCounts(dailyRepository.countVisitsByUserAndDateRange(
+            userId,
+            startOfDay(startDate),
+            lastDailyBucket(endDate, hourlyFrom)
+        ));
+        if (!endDate.isBefore(hourlyFrom)) {
+            toCounts(hourlyRepository.countVisitsByUserAndDateRange(userId, hourlyFrom, endDate))
+                .forEach((shortCode, count) -> counts.merge(shortCode, count, Long::sum));
+        }
+        return counts;
+    }
+
+    private static Map<String, Long> toCounts(List<Map<String, Object>> rows) {
+        return rows.stream().collect(Collectors.toMap(
+            map -> (String) map.get("shortCode"),
+            map -> ((Number) map.get("visitCount")).longValue()
+        ));
+    }
+
+    /**
+     * Restituisce l'inizio del primo giorno di cui sono conservati i rollup orari,
+     * lo stesso limite usato dal job di conservazione per cancellarli.
+     */
+    private LocalDateTime hourlyRetainedFrom() {
+        return retentionEnabled ? startOfDay(LocalDateTime.now().minus(retentionMaxAge)) : LocalDateTime.MIN;
+    }
+
+    private static LocalDateTime lastDailyBucket(LocalDateTime endDate, LocalDateTime hourlyFrom) {
+        return endDate.isBefore(hourlyFrom) ? endDate : hourlyFrom.minusDays(1);
+    }
+
+    private Granularity resolveGranularity(Granularity requested, LocalDateTime startDate, LocalDateTime endDate) {
+        if (requested != null) {
+            return requested;
+        }
+        return Duration.between(startDate, endDate).compareTo(hourlyMaxRange) <= 0 ? Granularity.HOUR : Granularity.DAY;
+    }
+
+    private static LocalDateTime startOfHour(LocalDateTime date) {
+        return date.truncatedTo(ChronoUnit.HOURS);
+    }
+
+    private static LocalDateTime startOfDay(LocalDateTime date) {
+        return date.truncatedTo(ChronoUnit.DAYS);
+    }
+
+    private static List<Map<String, Object>> toSeries(List<Map<String, Object>> rows) {
+        return rows.stream().map(row -> Map.of(
+            "bucket", row.get("bucket"),
+            "visitCount", row.get("visitCount")
+        )).collect(Collectors.toList());
+    }
+}
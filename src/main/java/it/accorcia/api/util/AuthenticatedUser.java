@@ -0,0 +1,24 @@
+package it.accorcia.api.util;
+
+import java.security.Principal;
+
+/**
+ * Principal dell'utente autenticato, costruito dai claim del token JWT.
+ * Contiene l'id dell'utente così che i controller possano interrogare i repository
+ * per id senza dover caricare l'entità User a ogni richiesta.
+ *
+ * @param id identificatore dell'utente
+ * @param username nome utente
+ */
+public record AuthenticatedUser(Long id, String username) implements Principal {
+
+    /**
+     * Restituisce il nome utente, così che {@code Authentication.getName()} continui a funzionare.
+     *
+     * @return il nome utente
+     */
+    @Override
+    public String getName() {
+        return username;
+    }
+}
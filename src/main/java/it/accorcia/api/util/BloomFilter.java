@@ -0,0 +1,134 @@
+package it.accorcia.api.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro di Bloom thread-safe per stringhe.
+ * Risponde alla domanda "questo valore è stato inserito?" senza falsi negativi
+ * e con una probabilità di falso positivo scelta alla creazione, occupando circa
+ * 10 bit per elemento con l'1% di falsi positivi. Gli elementi non possono essere rimossi.
+ * Inserimenti e letture concorrenti non richiedono lock: i bit vengono impostati con compare-and-set.
+ */
+public class BloomFilter {
+    /**
+     * Bit del filtro, raggruppati in parole da 64 bit.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Numero totale di bit del filtro.
+     */
+    private final long bitSize;
+
+    /**
+     * Numero di bit impostati per ogni elemento.
+     */
+    private final int hashCount;
+
+    /**
+     * Numero di bit attualmente impostati, usato per stimare la probabilità di falso positivo.
+     */
+    private final AtomicLong bitCount = new AtomicLong();
+
+    /**
+     * Numero di inserimenti effettuati, inclusi eventuali duplicati.
+     */
+    private final AtomicLong insertions = new AtomicLong();
+
+    private BloomFilter(long bitSize, int hashCount) {
+        this.words = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+        this.bitSize = (long) words.length() << 6;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Crea un filtro dimensionato per il numero di elementi e la probabilità di falso positivo indicati.
+     *
+     * @param expectedInsertions il numero di elementi previsto
+     * @param fpp la probabilità di falso positivo desiderata a filtro pieno, ad esempio 0.01
+     * @return il filtro vuoto
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long bits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        return new BloomFilter(Math.max(64, bits), hashes);
+    }
+
+    /**
+     * Aggiunge un valore al filtro.
+     *
+     * @param value il valore da aggiungere
+     */
+    public void put(String value) {
+        long hash1 = Hashing.hash64(value);
+        long hash2 = Hashing.mix64(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+        long combined = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            setBit((combined & Long.MAX_VALUE) % bitSize);
+            combined += hash2;
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * Verifica se un valore potrebbe essere stato aggiunto al filtro.
+     *
+     * @param value il valore da verificare
+     * @return false se il valore non è sicuramente mai stato aggiunto, true se potrebbe esserlo
+     */
+    public boolean mightContain(String value) {
+        long hash1 = Hashing.hash64(value);
+        long hash2 = Hashing.mix64(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+        long combined = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = (combined & Long.MAX_VALUE) % bitSize;
+            if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+            combined += hash2;
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!words.compareAndSet(word, current, current | mask));
+        bitCount.incrementAndGet();
+    }
+
+    /**
+     * Stima la probabilità di falso positivo attuale, in base alla frazione di bit impostati.
+     *
+     * @return la probabilità stimata, tra 0 e 1
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount.get() / bitSize, hashCount);
+    }
+
+    /**
+     * Restituisce la memoria occupata dai bit del filtro.
+     *
+     * @return la dimensione in byte
+     */
+    public long memoryBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    /**
+     * Restituisce il numero di inserimenti effettuati.
+     *
+     * @return il numero di inserimenti
+     */
+    public long insertions() {
+        return insertions.get();
+    }
+}
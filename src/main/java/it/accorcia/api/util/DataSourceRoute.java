@@ -0,0 +1,78 @@
+package it.accorcia.api.util;
+
+import java.util.function.Supplier;
+
+/**
+ * Pool di connessioni a cui instradare le query del thread corrente, quando l'instradamento è abilitato
+ * (datasource.routing.enabled, vedi {@link DataSourceRoutingConfig}). Senza instradamento tutte le query usano
+ * lo stesso pool e impostare un instradamento non ha effetto.
+ * L'instradamento viene letto quando la connessione viene effettivamente ottenuta, cioè alla prima query:
+ * le query eseguite in una transazione già iniziata su un altro pool restano su quel pool.
+ */
+public enum DataSourceRoute {
+
+    /**
+     * Pool principale: scritture e tutte le letture non instradate altrove.
+     */
+    PRIMARY,
+
+    /**
+     * Pool delle letture dei reindirizzamenti, separato così che le query lente non ne ritardino la risoluzione.
+     */
+    REDIRECT,
+
+    /**
+     * Pool delle letture delle statistiche e delle visite, che può puntare a una replica.
+     */
+    ANALYTICS;
+
+    private static final ThreadLocal<DataSourceRoute> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Chiude l'instradamento aperto da {@link #use()}, ripristinando quello precedente.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Restituisce l'instradamento del thread corrente.
+     *
+     * @return l'instradamento impostato, o {@link #PRIMARY} se non ne è impostato nessuno
+     */
+    public static DataSourceRoute current() {
+        DataSourceRoute route = CURRENT.get();
+        return route != null ? route : PRIMARY;
+    }
+
+    /**
+     * Instrada al pool le query del thread corrente fino alla chiusura dello scope restituito.
+     *
+     * @return lo scope da chiudere, tipicamente con un try-with-resources
+     */
+    public Scope use() {
+        DataSourceRoute previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Esegue un'operazione instradando al pool le sue query.
+     *
+     * @param action l'operazione da eseguire
+     * @param <T> il tipo del risultato
+     * @return il risultato dell'operazione
+     */
+    public <T> T call(Supplier<T> action) {
+        try (Scope scope = use()) {
+            return action.get();
+        }
+    }
+}
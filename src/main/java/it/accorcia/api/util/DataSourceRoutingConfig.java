@@ -0,0 +1,163 @@
+package it.accorcia.api.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Configurazione dell'instradamento delle query su pool di connessioni separati.
+ * Con datasource.routing.enabled=true il datasource dell'applicazione instrada ogni connessione al pool indicato
+ * da {@link DataSourceRoute}: il pool principale per le scritture, un pool dedicato alle letture dei reindirizzamenti
+ * e uno per le statistiche, che può puntare a una replica. Ogni pool ha dimensioni proprie e le metriche
+ * hikaricp.connections.* con il nome del pool come tag.
+ * Il datasource è avvolto da un {@link LazyConnectionDataSourceProxy}, così che la connessione venga ottenuta
+ * alla prima query e non all'inizio della transazione, quando l'instradamento potrebbe non essere ancora impostato.
+ * Hibernate rilascia la connessione alla fine di ogni transazione invece di tenerla fino alla fine della richiesta
+ * (open-in-view), altrimenti tutte le query di una richiesta userebbero il pool della prima.
+ * Flyway, Hibernate e le query non instradate usano il pool principale.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.routing.enabled", havingValue = "true")
+public class DataSourceRoutingConfig {
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.username}")
+    private String username;
+
+    @Value("${spring.datasource.password}")
+    private String password;
+
+    @Value("${datasource.primary.maximum-pool-size:10}")
+    private int primaryMaximumPoolSize;
+
+    @Value("${datasource.primary.minimum-idle:10}")
+    private int primaryMinimumIdle;
+
+    /**
+     * Database delle letture dei reindirizzamenti; se punta a una replica, i link appena creati
+     * risultano inesistenti finché la replica non li ha ricevuti.
+     */
+    @Value("${datasource.redirect.url:${spring.datasource.url}}")
+    private String redirectUrl;
+
+    @Value("${datasource.redirect.username:${spring.datasource.username}}")
+    private String redirectUsername;
+
+    @Value("${datasource.redirect.password:${spring.datasource.password}}")
+    private String redirectPassword;
+
+    @Value("${datasource.redirect.maximum-pool-size:10}")
+    private int redirectMaximumPoolSize;
+
+    @Value("${datasource.redirect.minimum-idle:2}")
+    private int redirectMinimumIdle;
+
+    /**
+     * Database delle letture delle statistiche e delle visite, tipicamente una replica.
+     */
+    @Value("${datasource.analytics.url:${spring.datasource.url}}")
+    private String analyticsUrl;
+
+    @Value("${datasource.analytics.username:${spring.datasource.username}}")
+    private String analyticsUsername;
+
+    @Value("${datasource.analytics.password:${spring.datasource.password}}")
+    private String analyticsPassword;
+
+    @Value("${datasource.analytics.maximum-pool-size:4}")
+    private int analyticsMaximumPoolSize;
+
+    @Value("${datasource.analytics.minimum-idle:1}")
+    private int analyticsMinimumIdle;
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource primaryDataSource() {
+        return createPool("primary", url, username, password, primaryMaximumPoolSize, primaryMinimumIdle, false);
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource redirectDataSource() {
+        return createPool(
+            "redirect", redirectUrl, redirectUsername, redirectPassword, redirectMaximumPoolSize, redirectMinimumIdle, true
+        );
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource analyticsDataSource() {
+        return createPool(
+            "analytics", analyticsUrl, analyticsUsername, analyticsPassword, analyticsMaximumPoolSize, analyticsMinimumIdle, true
+        );
+    }
+
+    /**
+     * Datasource usato da JPA, JdbcTemplate e Flyway, che instrada ogni connessione al pool del thread corrente.
+     *
+     * @return il datasource con instradamento
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource() {
+        AbstractRoutingDataSource routing = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return DataSourceRoute.current();
+            }
+        };
+        routing.setTargetDataSources(Map.of(
+            DataSourceRoute.PRIMARY, primaryDataSource(),
+            DataSourceRoute.REDIRECT, redirectDataSource(),
+            DataSourceRoute.ANALYTICS, analyticsDataSource()
+        ));
+        routing.setDefaultTargetDataSource(primaryDataSource());
+        routing.setLenientFallback(false);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    /**
+     * Fa rilasciare a Hibernate la connessione alla fine di ogni transazione, così che la transazione successiva
+     * della stessa richiesta ottenga una nuova connessione dal pool del proprio instradamento.
+     *
+     * @return il customizer delle proprietà di Hibernate
+     */
+    @Bean
+    public HibernatePropertiesCustomizer connectionReleaseCustomizer() {
+        return properties -> properties.put(
+            AvailableSettings.CONNECTION_HANDLING,
+            PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION
+        );
+    }
+
+    private static HikariDataSource createPool(
+        String name,
+        String url,
+        String username,
+        String password,
+        int maximumPoolSize,
+        int minimumIdle,
+        boolean readOnly
+    ) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url);
+        pool.setUsername(username);
+        pool.setPassword(password);
+        pool.setMaximumPoolSize(maximumPoolSize);
+        pool.setMinimumIdle(Math.min(minimumIdle, maximumPoolSize));
+        pool.setReadOnly(readOnly);
+        return pool;
+    }
+}
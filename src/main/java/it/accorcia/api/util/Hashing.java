@@ -0,0 +1,42 @@
+package it.accorcia.api.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Funzioni di hash non crittografiche usate dalle strutture probabilistiche in memoria.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Hash a 64 bit (FNV-1a seguito dal finalizzatore di MurmurHash3) con buona distribuzione di tutti i bit.
+     *
+     * @param value la stringa di cui calcolare l'hash
+     * @return l'hash a 64 bit
+     */
+    public static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * Finalizzatore di MurmurHash3: rimescola i bit di un valore a 64 bit.
+     *
+     * @param h il valore da rimescolare
+     * @return il valore rimescolato
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e88d3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
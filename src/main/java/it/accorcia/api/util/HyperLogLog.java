@@ -0,0 +1,111 @@
+package it.accorcia.api.util;
+
+/**
+ * Implementazione compatta di HyperLogLog per stimare il numero di valori distinti.
+ * Utilizzata per stimare i visitatori unici (indirizzi IP distinti) nei rollup giornalieri
+ * senza dover conservare gli indirizzi: ogni sketch occupa {@link #SIZE_BYTES} byte
+ * e due sketch possono essere uniti per ottenere la stima su un intervallo più ampio.
+ * Con 1024 registri l'errore standard della stima è circa il 3%.
+ */
+public class HyperLogLog {
+    /**
+     * Numero di bit dell'hash usati per scegliere il registro.
+     */
+    private static final int PRECISION = 10;
+
+    /**
+     * Numero di registri, e quindi di byte, di uno sketch.
+     */
+    public static final int SIZE_BYTES = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / SIZE_BYTES);
+
+    /**
+     * Registri dello sketch: ognuno contiene la posizione massima del primo bit a 1 osservata.
+     */
+    private final byte[] registers;
+
+    /**
+     * Crea uno sketch vuoto.
+     */
+    public HyperLogLog() {
+        this.registers = new byte[SIZE_BYTES];
+    }
+
+    /**
+     * Ricostruisce uno sketch dai suoi registri serializzati.
+     * Un array nullo o di dimensione errata produce uno sketch vuoto.
+     *
+     * @param bytes i registri letti dal database
+     * @return lo sketch corrispondente
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        HyperLogLog hll = new HyperLogLog();
+        if (bytes != null && bytes.length == SIZE_BYTES) {
+            System.arraycopy(bytes, 0, hll.registers, 0, SIZE_BYTES);
+        }
+        return hll;
+    }
+
+    /**
+     * Aggiunge un valore allo sketch. I valori null vengono ignorati.
+     *
+     * @param value il valore da aggiungere
+     */
+    public void add(String value) {
+        if (value == null) {
+            return;
+        }
+        long hash = Hashing.hash64(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // il bit sentinella garantisce un rank massimo di 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Unisce un altro sketch in questo, ottenendo lo sketch dell'unione dei due insiemi.
+     *
+     * @param other lo sketch da unire
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < SIZE_BYTES; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Stima il numero di valori distinti aggiunti allo sketch.
+     *
+     * @return la stima della cardinalità
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * SIZE_BYTES * SIZE_BYTES / sum;
+        // per cardinalità piccole il linear counting è molto più preciso
+        if (estimate <= 2.5 * SIZE_BYTES && zeros > 0) {
+            estimate = SIZE_BYTES * Math.log((double) SIZE_BYTES / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Restituisce una copia dei registri, da salvare sul database.
+     *
+     * @return i registri serializzati
+     */
+    public byte[] toBytes() {
+        return registers.clone();
+    }
+}
@@ -33,7 +33,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     /**
      * Metodo principale del filtro che processa ogni richiesta HTTP.
-     * Estrae il token JWT dall'header Authorization, lo valida e imposta l'autenticazione nel contesto di sicurezza.
+     * Estrae il token JWT dall'header Authorization, lo verifica una sola volta e imposta l'autenticazione nel contesto di sicurezza,
+     * con un {@link AuthenticatedUser} come principal.
      *
      * @param request la richiesta HTTP in entrata
      * @param response la risposta HTTP in uscita
@@ -49,11 +50,17 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     ) throws ServletException, IOException {
         String token = extractToken(request);
 
-        if (token != null && jwtUtil.validateToken(token)) {
-            String username = jwtUtil.getUsernameFromToken(token);
-            UsernamePasswordAuthenticationToken auth =
-                new UsernamePasswordAuthenticationToken(username, null, Collections.emptyList());
-            SecurityContextHolder.getContext().setAuthentication(auth);
+        if (token != null) {
+            RequestTiming timing = RequestTiming.current();
+            long start = timing != null ? System.nanoTime() : 0;
+            jwtUtil.parseToken(token).flatMap(jwtUtil::toPrincipal).ifPresent(principal -> {
+                UsernamePasswordAuthenticationToken auth =
+                    new UsernamePasswordAuthenticationToken(principal, null, Collections.emptyList());
+                SecurityContextHolder.getContext().setAuthentication(auth);
+            });
+            if (timing != null) {
+                timing.add(RequestTiming.JWT, System.nanoTime() - start);
+            }
         }
 
         chain.doFilter(request, response);
@@ -0,0 +1,38 @@
+package it.accorcia.api.util;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.security.Principal;
+import java.util.Map;
+
+/**
+ * Handshake handler che associa alla sessione WebSocket l'utente autenticato da {@link JwtHandshakeInterceptor}.
+ * Il principal della sessione ha come nome l'id dell'utente, così che le destinazioni /user/queue/...
+ * possano essere indirizzate conoscendo solo il proprietario di un link, senza risalire al nome utente.
+ */
+public class JwtHandshakeHandler extends DefaultHandshakeHandler {
+
+    /**
+     * Restituisce il principal della sessione a partire dall'id utente salvato negli attributi durante l'handshake.
+     *
+     * @param request la richiesta HTTP del client
+     * @param wsHandler il gestore WebSocket
+     * @param attributes gli attributi della sessione WebSocket
+     * @return il principal con nome uguale all'id dell'utente, null se l'utente non è noto
+     */
+    @Override
+    protected Principal determineUser(
+        ServerHttpRequest request,
+        WebSocketHandler wsHandler,
+        Map<String, Object> attributes
+    ) {
+        Object userId = attributes.get(JwtHandshakeInterceptor.USER_ID_ATTRIBUTE);
+        if (userId == null) {
+            return null;
+        }
+        String name = userId.toString();
+        return () -> name;
+    }
+}
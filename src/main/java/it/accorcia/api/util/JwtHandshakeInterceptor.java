@@ -6,12 +6,18 @@ import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Interceptor per la gestione dell'autenticazione JWT durante l'handshake delle connessioni WebSocket.
  * Verifica la validità del token JWT fornito nella richiesta di connessione WebSocket.
  */
 public class JwtHandshakeInterceptor implements HandshakeInterceptor {
+    /**
+     * Attributo della sessione WebSocket contenente l'id dell'utente autenticato.
+     */
+    public static final String USER_ID_ATTRIBUTE = "userId";
+
     /**
      * Utilità per la gestione dei token JWT.
      */
@@ -29,7 +35,7 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
     /**
      * Metodo eseguito prima dell'handshake WebSocket.
      * Estrae e valida il token JWT dalla query della richiesta e, se valido,
-     * aggiunge il nome utente agli attributi della sessione WebSocket.
+     * aggiunge nome utente e id dell'utente agli attributi della sessione WebSocket.
      *
      * @param request la richiesta HTTP del client
      * @param response la risposta HTTP del server
@@ -45,9 +51,10 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
         Map<String, Object> attributes
     ) {
         String token = extractTokenFromQuery(request);
-        if (token != null && jwtUtil.validateToken(token)) {
-            String username = jwtUtil.getUsernameFromToken(token);
-            attributes.put("username", username);
+        Optional<AuthenticatedUser> user = jwtUtil.parseToken(token).flatMap(jwtUtil::toPrincipal);
+        if (user.isPresent()) {
+            attributes.put("username", user.get().username());
+            attributes.put(USER_ID_ATTRIBUTE, user.get().id());
             return true;
         }
         return false;
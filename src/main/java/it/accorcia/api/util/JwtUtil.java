@@ -1,21 +1,41 @@
 package it.accorcia.api.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import it.accorcia.api.model.User;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
-import java.security.Key;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class per la gestione dei token JWT (JSON Web Token).
  * Fornisce metodi per generare, validare e analizzare token JWT utilizzati per l'autenticazione.
+ * La chiave e il parser vengono costruiti una sola volta all'avvio; i token già verificati
+ * vengono ricordati fino alla loro scadenza, così che le richieste successive con lo stesso token
+ * non debbano ripetere la verifica della firma. La durata delle verifiche è misurata dal timer jwt.verification,
+ * con l'esito (valid, invalid) come tag; i token trovati in cache sono contati da jwt.verification.cached.
  */
 @Component
 public class JwtUtil {
@@ -35,11 +55,66 @@ public class JwtUtil {
     private Long expiration;
 
     /**
-     * Genera una chiave crittografica basata sulla chiave segreta configurata.
-     * @return la chiave crittografica per la firma e verifica dei token
+     * Numero massimo di token verificati mantenuti in cache.
      */
-    private Key key() {
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+    @Value("${jwt.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * La chiave crittografica per la firma e verifica dei token, derivata dalla chiave segreta configurata.
+     */
+    private SecretKey key;
+
+    /**
+     * Il parser che verifica la firma dei token con la chiave configurata. È thread-safe e viene riutilizzato.
+     */
+    private JwtParser parser;
+
+    /**
+     * Token già verificati, indicizzati per hash SHA-256 del token.
+     * Ogni elemento scade insieme al token a cui si riferisce.
+     */
+    private Cache<String, Claims> verifiedTokens;
+
+    private Timer validVerifications;
+
+    private Timer invalidVerifications;
+
+    private Counter cachedVerifications;
+
+    /**
+     * Costruisce chiave, parser e cache dei token verificati e registra le metriche.
+     */
+    @PostConstruct
+    void init() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        parser = Jwts.parser().verifyWith(key).build();
+        verifiedTokens = Caffeine.newBuilder()
+            .maximumSize(cacheMaxSize)
+            .expireAfter(Expiry.<String, Claims>creating((hash, claims) -> Duration.ofMillis(
+                Math.max(0, claims.getExpiration().getTime() - System.currentTimeMillis())
+            )))
+            .build();
+
+        validVerifications = verificationTimer("valid");
+        invalidVerifications = verificationTimer("invalid");
+        cachedVerifications = Counter.builder("jwt.verification.cached")
+            .description("Token trovati nella cache dei token verificati, senza verificarne la firma")
+            .register(meterRegistry);
+    }
+
+    private Timer verificationTimer(String result) {
+        return Timer.builder("jwt.verification")
+            .description("Durata della verifica della firma dei token JWT, per esito")
+            .tag("result", result)
+            .publishPercentileHistogram()
+            // i valori attesi sono nell'ordine dei microsecondi, i bucket predefiniti partono da 1 ms
+            .minimumExpectedValue(Duration.ofNanos(10_000))
+            .maximumExpectedValue(Duration.ofSeconds(1))
+            .register(meterRegistry);
     }
 
     /**
@@ -56,10 +131,60 @@ public class JwtUtil {
             .claim("id", user.getId())
             .claim("email", user.getEmail())
             .expiration(new Date(System.currentTimeMillis() + expiration))
-            .signWith(key(), SignatureAlgorithm.HS256)
+            .signWith(key, SignatureAlgorithm.HS256)
             .compact();
     }
 
+    /**
+     * Verifica un token JWT ed estrae i suoi claim in un solo passaggio.
+     * Controlla che il token sia ben formato, non scaduto e firmato con la chiave corretta;
+     * se lo stesso token è già stato verificato e non è ancora scaduto, restituisce i claim memorizzati.
+     *
+     * @param token il token JWT da verificare
+     * @return un Optional contenente i claim del token se valido, altrimenti vuoto
+     */
+    public Optional<Claims> parseToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String hash = hash(token);
+        Claims cached = verifiedTokens.getIfPresent(hash);
+        if (cached != null) {
+            cachedVerifications.increment();
+            return Optional.of(cached);
+        }
+
+        long start = System.nanoTime();
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            validVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            // i token senza scadenza non vengono memorizzati
+            if (claims.getExpiration() != null) {
+                verifiedTokens.put(hash, claims);
+            }
+            return Optional.of(claims);
+        } catch (JwtException | IllegalArgumentException e) {
+            invalidVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Costruisce il principal dell'utente autenticato dai claim di un token verificato.
+     * I token senza id dell'utente non producono alcun principal.
+     *
+     * @param claims i claim del token
+     * @return un Optional contenente il principal, vuoto se il token non contiene l'id
+     */
+    public Optional<AuthenticatedUser> toPrincipal(Claims claims) {
+        Object id = claims.get("id");
+        if (!(id instanceof Number number)) {
+            return Optional.empty();
+        }
+        return Optional.of(new AuthenticatedUser(number.longValue(), claims.getSubject()));
+    }
+
     /**
      * Estrae il nome utente da un token JWT.
      *
@@ -67,7 +192,7 @@ public class JwtUtil {
      * @return il nome utente contenuto nel token
      */
     public String getUsernameFromToken(String token) {
-        return Jwts.parser().verifyWith((SecretKey) key()).build().parseClaimsJws(token).getBody().getSubject();
+        return parseToken(token).map(Claims::getSubject).orElseThrow(() -> new JwtException("Token non valido"));
     }
 
     /**
@@ -78,11 +203,22 @@ public class JwtUtil {
      * @return true se il token è valido, false altrimenti
      */
     public boolean validateToken(String token) {
+        return parseToken(token).isPresent();
+    }
+
+    /**
+     * Calcola l'hash SHA-256 di un token, usato come chiave della cache
+     * per non mantenere in memoria i token in chiaro.
+     *
+     * @param token il token di cui calcolare l'hash
+     * @return l'hash del token codificato in Base64
+     */
+    private static String hash(String token) {
         try {
-            Jwts.parser().verifyWith((SecretKey) key()).build().parseClaimsJws(token);
-            return true;
-        } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
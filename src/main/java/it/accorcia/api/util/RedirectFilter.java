@@ -0,0 +1,90 @@
+package it.accorcia.api.util;
+
+import it.accorcia.api.service.RedirectService;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Filtro che gestisce i reindirizzamenti /{shortCode} prima di qualsiasi altro filtro.
+ * I reindirizzamenti sono pubblici e non hanno bisogno di autenticazione JWT, CORS né del dispatcher MVC:
+ * il filtro risponde direttamente con un 302 e le altre richieste proseguono lungo la catena come prima.
+ * Con redirect.fast-path.enabled=false i reindirizzamenti tornano a essere gestiti da RedirectController.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "redirect.fast-path.enabled", havingValue = "true", matchIfMissing = true)
+public class RedirectFilter implements Filter {
+
+    /**
+     * Percorsi di un solo segmento gestiti da altri controller, che vanno lasciati al resto dell'applicazione.
+     */
+    private static final Set<String> RESERVED = Set.of("404", "500", "error");
+
+    @Autowired
+    private RedirectService redirectService;
+
+    /**
+     * Risponde con un reindirizzamento alle richieste GET e HEAD di un solo segmento,
+     * passando tutte le altre al filtro successivo.
+     *
+     * @param req la richiesta
+     * @param res la risposta
+     * @param chain la catena dei filtri
+     */
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        String shortCode = extractShortCode(request);
+        if (shortCode == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        HttpServletResponse response = (HttpServletResponse) res;
+        response.setStatus(HttpServletResponse.SC_FOUND);
+        response.setHeader("Location", redirectService.redirect(shortCode, request));
+    }
+
+    /**
+     * Estrae il codice breve dal percorso della richiesta, se la richiesta è un reindirizzamento.
+     *
+     * @param request la richiesta HTTP
+     * @return il codice breve, o null se la richiesta non è un reindirizzamento
+     */
+    private static String extractShortCode(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+
+        String uri = request.getRequestURI();
+        int start = request.getContextPath().length() + 1;
+        // solo percorsi di un segmento non vuoto, senza parametri di percorso (;)
+        if (uri.length() <= start || uri.charAt(start - 1) != '/'
+            || uri.indexOf('/', start) >= 0 || uri.indexOf(';', start) >= 0) {
+            return null;
+        }
+
+        String shortCode = uri.substring(start);
+        if (shortCode.indexOf('%') >= 0) {
+            shortCode = UriUtils.decode(shortCode, StandardCharsets.UTF_8);
+        }
+        return RESERVED.contains(shortCode) ? null : shortCode;
+    }
+}
@@ -0,0 +1,142 @@
+package it.accorcia.api.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Durate delle fasi di una singola richiesta, raccolte quando la misurazione è abilitata (server-timing.enabled).
+ * L'istanza della richiesta in corso è associata al thread da {@link ServerTimingFilter}; senza il filtro
+ * {@link #current()} restituisce sempre null e le chiamate a {@link #record(String, long)} non fanno nulla.
+ */
+public final class RequestTiming {
+
+    /**
+     * Filtri e catena di sicurezza, fino all'invocazione del controller.
+     */
+    public static final String SECURITY = "security";
+
+    /**
+     * Verifica del token JWT.
+     */
+    public static final String JWT = "jwt";
+
+    /**
+     * Chiamate ai repository, sommate.
+     */
+    public static final String DB = "db";
+
+    /**
+     * Serializzazione JSON del corpo della risposta.
+     */
+    public static final String SERIALIZATION = "serialization";
+
+    /**
+     * Risoluzione di un reindirizzamento e accodamento della visita.
+     */
+    public static final String REDIRECT = "redirect";
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Istante di inizio della richiesta, in nanosecondi.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Per ogni fase: durata totale in nanosecondi e numero di occorrenze.
+     */
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    RequestTiming() {
+    }
+
+    /**
+     * Restituisce la misurazione della richiesta in corso sul thread corrente.
+     *
+     * @return la misurazione, o null se la misurazione è disabilitata o il thread non sta gestendo una richiesta
+     */
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Aggiunge una durata a una fase della richiesta in corso, se misurata.
+     *
+     * @param phase il nome della fase
+     * @param nanos la durata in nanosecondi
+     */
+    public static void record(String phase, long nanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(phase, nanos);
+        }
+    }
+
+    static void bind(RequestTiming timing) {
+        CURRENT.set(timing);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Aggiunge una durata a una fase.
+     *
+     * @param phase il nome della fase
+     * @param nanos la durata in nanosecondi
+     */
+    public void add(String phase, long nanos) {
+        long[] phaseTotals = phases.computeIfAbsent(phase, p -> new long[2]);
+        phaseTotals[0] += nanos;
+        phaseTotals[1]++;
+    }
+
+    /**
+     * Restituisce il tempo trascorso dall'inizio della richiesta.
+     *
+     * @return il tempo trascorso in nanosecondi
+     */
+    public long elapsed() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Costruisce il valore dell'header Server-Timing con le fasi misurate finora e la durata totale.
+     * Le fasi con più occorrenze riportano il numero di occorrenze nella descrizione.
+     *
+     * @return il valore dell'header, ad esempio {@code security;dur=0.812, db;dur=8.104;desc="3", total;dur=12.410}
+     */
+    public String toHeader() {
+        StringBuilder header = new StringBuilder(128);
+        phases.forEach((phase, phaseTotals) -> {
+            header.append(phase).append(";dur=").append(millis(phaseTotals[0]));
+            if (phaseTotals[1] > 1) {
+                header.append(";desc=\"").append(phaseTotals[1]).append('"');
+            }
+            header.append(", ");
+        });
+        return header.append("total;dur=").append(millis(elapsed())).toString();
+    }
+
+    /**
+     * Costruisce la parte della riga di log con le durate, nella forma chiave=valore.
+     *
+     * @return le durate, ad esempio {@code total_ms=12.410 security_ms=0.812 db_ms=8.104 db_count=3}
+     */
+    public String toLogFields() {
+        StringBuilder fields = new StringBuilder(128).append("total_ms=").append(millis(elapsed()));
+        phases.forEach((phase, phaseTotals) -> {
+            fields.append(' ').append(phase).append("_ms=").append(millis(phaseTotals[0]));
+            if (phaseTotals[1] > 1) {
+                fields.append(' ').append(phase).append("_count=").append(phaseTotals[1]);
+            }
+        });
+        return fields.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
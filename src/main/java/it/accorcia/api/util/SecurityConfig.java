@@ -2,8 +2,10 @@ package it.accorcia.api.util;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -45,6 +47,25 @@ public class SecurityConfig {
         return new BCryptPasswordEncoder();
     }
 
+    /**
+     * Configura la catena di filtri degli endpoint actuator, valutata prima di quella dell'applicazione.
+     * Gli endpoint sono esposti solo sulla porta di gestione (management.server.port), che non deve essere
+     * raggiungibile dall'esterno, quindi sono accessibili senza autenticazione e senza verifica dei token JWT.
+     *
+     * @param http il builder di configurazione della sicurezza HTTP
+     * @return la catena di filtri di sicurezza degli endpoint actuator
+     * @throws Exception se si verifica un errore durante la configurazione
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain managementFilterChain(HttpSecurity http) throws Exception {
+        http.securityMatcher(EndpointRequest.toAnyEndpoint())
+            .csrf(AbstractHttpConfigurer::disable)
+            .authorizeHttpRequests(auth -> auth.anyRequest().permitAll());
+
+        return http.build();
+    }
+
     /**
      * Configura la catena di filtri di sicurezza per l'applicazione.
      * Definisce quali URL sono accessibili pubblicamente e quali richiedono autenticazione,
@@ -57,6 +78,7 @@ public class SecurityConfig {
      * @throws Exception se si verifica un errore durante la configurazione
      */
     @Bean
+    @Order(2)
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http.csrf(AbstractHttpConfigurer::disable)
             .cors(
@@ -0,0 +1,136 @@
+package it.accorcia.api.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configurazione della misurazione delle fasi delle richieste (header Server-Timing e riga di log campionata).
+ * Con server-timing.enabled=false nessuno di questi componenti viene creato: filtro, intercettore,
+ * convertitore JSON e ascoltatore dei repository restano quelli predefiniti e il costo si riduce
+ * alla lettura di un ThreadLocal vuoto nei punti che registrano una fase.
+ */
+@Configuration
+@ConditionalOnProperty(name = "server-timing.enabled", havingValue = "true")
+public class ServerTimingConfig implements WebMvcConfigurer {
+
+    /**
+     * Frazione delle richieste, tra 0 e 1, per cui viene scritta la riga di log.
+     */
+    @Value("${server-timing.log-sample-rate:0.01}")
+    private double logSampleRate;
+
+    /**
+     * Durata oltre la quale la riga di log viene sempre scritta.
+     */
+    @Value("${server-timing.log-slow-threshold:1s}")
+    private Duration logSlowThreshold;
+
+    /**
+     * Registra il filtro prima di tutti gli altri, compreso il filtro di reindirizzamento rapido.
+     * Le registrazioni esplicite precedono i filtri registrati come semplici bean a parità di ordine.
+     *
+     * @return la registrazione del filtro
+     */
+    @Bean
+    public FilterRegistrationBean<ServerTimingFilter> serverTimingFilter() {
+        FilterRegistrationBean<ServerTimingFilter> registration =
+            new FilterRegistrationBean<>(new ServerTimingFilter(logSampleRate, logSlowThreshold));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * Aggiunge a ogni repository un ascoltatore che somma la durata delle chiamate nella fase db.
+     *
+     * @return il post-processore dei repository
+     */
+    @Bean
+    public static BeanPostProcessor repositoryTimingPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addInvocationListener(
+                        invocation -> RequestTiming.record(RequestTiming.DB, invocation.getDuration(TimeUnit.NANOSECONDS))
+                    ));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Misura come fase security il tempo trascorso tra l'inizio della richiesta e l'invocazione del controller,
+     * cioè i filtri e la catena di sicurezza.
+     *
+     * @param registry il registro degli intercettori
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                RequestTiming timing = RequestTiming.current();
+                if (timing != null) {
+                    timing.add(RequestTiming.SECURITY, timing.elapsed());
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sostituisce il convertitore JSON con uno che misura la serializzazione del corpo delle risposte.
+     *
+     * @param converters i convertitori configurati
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i).getClass() == MappingJackson2HttpMessageConverter.class) {
+                MappingJackson2HttpMessageConverter converter = (MappingJackson2HttpMessageConverter) converters.get(i);
+                converters.set(i, new TimedJacksonConverter(converter.getObjectMapper()));
+            }
+        }
+    }
+
+    /**
+     * Convertitore JSON che aggiunge la durata della scrittura del corpo alla fase serialization.
+     */
+    private static class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+        private TimedJacksonConverter(ObjectMapper objectMapper) {
+            super(objectMapper);
+        }
+
+        @Override
+        protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+            long start = System.nanoTime();
+            try {
+                super.writeInternal(object, type, outputMessage);
+            } finally {
+                RequestTiming.record(RequestTiming.SERIALIZATION, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package it.accorcia.api.util;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Filtro che misura le fasi di ogni richiesta e le restituisce nell'header Server-Timing.
+ * L'header viene aggiunto appena prima che la risposta venga inviata, quindi contiene le fasi concluse fino a quel momento:
+ * la serializzazione del corpo, che avviene mentre la risposta viene scritta, compare solo nella riga di log.
+ * La riga di log viene scritta per una frazione casuale delle richieste e sempre per quelle più lente della soglia.
+ * Viene registrato da {@link ServerTimingConfig} solo con server-timing.enabled=true.
+ */
+@Slf4j
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    /**
+     * Frazione delle richieste, tra 0 e 1, per cui viene scritta la riga di log.
+     */
+    private final double logSampleRate;
+
+    /**
+     * Durata oltre la quale la riga di log viene sempre scritta.
+     */
+    private final long slowThresholdNanos;
+
+    /**
+     * Costruttore
+     *
+     * @param logSampleRate frazione delle richieste per cui viene scritta la riga di log
+     * @param slowThreshold durata oltre la quale la riga di log viene sempre scritta
+     */
+    public ServerTimingFilter(double logSampleRate, Duration slowThreshold) {
+        this.logSampleRate = logSampleRate;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+    }
+
+    @Override
+    protected void doFilterInternal(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        FilterChain chain
+    ) throws ServletException, IOException {
+        RequestTiming timing = new RequestTiming();
+        TimingResponse timingResponse = new TimingResponse(response, timing);
+        RequestTiming.bind(timing);
+        try {
+            chain.doFilter(request, timingResponse);
+        } finally {
+            RequestTiming.unbind();
+            if (!response.isCommitted()) {
+                timingResponse.addTimingHeader();
+            }
+        }
+
+        if (request.isAsyncStarted()) {
+            // le risposte in streaming vengono completate da un altro thread: il log viene scritto alla fine
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    log(request, response, timing);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            log(request, response, timing);
+        }
+    }
+
+    /**
+     * Scrive la riga di log della richiesta se è stata campionata o se è più lenta della soglia.
+     */
+    private void log(HttpServletRequest request, HttpServletResponse response, RequestTiming timing) {
+        if (timing.elapsed() < slowThresholdNanos && ThreadLocalRandom.current().nextDouble() >= logSampleRate) {
+            return;
+        }
+        log.info("server-timing method={} uri={} status={} {}",
+            request.getMethod(), request.getRequestURI(), response.getStatus(), timing.toLogFields());
+    }
+
+    /**
+     * Risposta che aggiunge l'header Server-Timing una sola volta, appena prima che gli header vengano inviati.
+     */
+    private static class TimingResponse extends HttpServletResponseWrapper {
+        private final RequestTiming timing;
+
+        private boolean headerAdded;
+
+        private TimingResponse(HttpServletResponse response, RequestTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        private void addTimingHeader() {
+            if (!headerAdded) {
+                headerAdded = true;
+                setHeader("Server-Timing", timing.toHeader());
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTimingHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTimingHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTimingHeader();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addTimingHeader();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addTimingHeader();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addTimingHeader();
+            super.sendRedirect(location);
+        }
+    }
+}
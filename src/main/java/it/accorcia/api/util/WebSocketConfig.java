@@ -3,11 +3,17 @@ package it.accorcia.api.util;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.time.Duration;
 
 /**
  * Configurazione WebSocket dell'applicazione.
@@ -31,21 +37,121 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Autowired
     private JwtUtil jwtUtil;
 
+    /**
+     * Monitoraggio delle sessioni, che conta i messaggi in coda e protegge dai client lenti.
+     */
+    @Autowired
+    private WebSocketSessionMonitor sessionMonitor;
+
+    /**
+     * Se true i messaggi in ingresso e in uscita vengono gestiti da virtual thread invece che da pool di thread fissi.
+     */
+    @Value("${websocket.executor.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    @Value("${websocket.inbound.core-pool-size:8}")
+    private int inboundCorePoolSize;
+
+    @Value("${websocket.inbound.max-pool-size:32}")
+    private int inboundMaxPoolSize;
+
+    @Value("${websocket.inbound.queue-capacity:1000}")
+    private int inboundQueueCapacity;
+
+    @Value("${websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${websocket.outbound.max-pool-size:32}")
+    private int outboundMaxPoolSize;
+
+    @Value("${websocket.outbound.queue-capacity:1000}")
+    private int outboundQueueCapacity;
+
+    /**
+     * Tempo massimo per l'invio di un messaggio a un client, oltre il quale la sessione viene chiusa.
+     */
+    @Value("${websocket.send-time-limit:10s}")
+    private Duration sendTimeLimit;
+
+    /**
+     * Dimensione massima dei messaggi in attesa di invio per sessione, oltre la quale la sessione viene chiusa.
+     */
+    @Value("${websocket.send-buffer-size-limit:512KB}")
+    private DataSize sendBufferSizeLimit;
+
+    /**
+     * Dimensione massima di un messaggio ricevuto da un client.
+     */
+    @Value("${websocket.message-size-limit:64KB}")
+    private DataSize messageSizeLimit;
+
     /**
      * Configura il broker di messaggi per la comunicazione WebSocket.
      * Definisce i prefissi per i canali di pubblicazione e sottoscrizione.
+     * Le destinazioni /user/queue/... vengono risolte nelle code delle sole sessioni dell'utente,
+     * identificato dall'id assegnato durante l'handshake.
      *
      * @param config il registro di configurazione del broker di messaggi
      */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        config.setUserDestinationPrefix("/user");
+    }
+
+    /**
+     * Configura l'esecuzione dei messaggi ricevuti dai client.
+     *
+     * @param registration la configurazione del canale in ingresso
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-inbound-"));
+        } else {
+            registration.taskExecutor()
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(inboundQueueCapacity);
+        }
+    }
+
+    /**
+     * Configura l'esecuzione dei messaggi inviati ai client e aggiunge il controllo dei client lenti.
+     *
+     * @param registration la configurazione del canale in uscita
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sessionMonitor);
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-outbound-"));
+        } else {
+            registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+        }
+    }
+
+    /**
+     * Configura i limiti di invio e ricezione delle sessioni WebSocket.
+     *
+     * @param registration la configurazione del trasporto WebSocket
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit((int) sendTimeLimit.toMillis())
+            .setSendBufferSizeLimit((int) sendBufferSizeLimit.toBytes())
+            .setMessageSizeLimit((int) messageSizeLimit.toBytes())
+            .addDecoratorFactory(sessionMonitor);
     }
 
     /**
      * Registra gli endpoint STOMP per le connessioni WebSocket.
-     * Configura l'endpoint principale, le origini consentite e aggiunge l'interceptor JWT per l'autenticazione.
+     * Configura l'endpoint principale, le origini consentite e aggiunge l'interceptor JWT per l'autenticazione
+     * e l'handshake handler che associa l'utente alla sessione.
      *
      * @param registry il registro degli endpoint STOMP
      */
@@ -53,6 +159,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
             .setAllowedOriginPatterns(dashboardUrl)
+            .setHandshakeHandler(new JwtHandshakeHandler())
             .addInterceptors(new JwtHandshakeInterceptor(jwtUtil))
             .withSockJS();
     }
@@ -0,0 +1,241 @@
+package it.accorcia.api.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monitoraggio delle sessioni WebSocket e protezione dai client lenti.
+ * Per ogni sessione conta i messaggi accettati sul canale in uscita e quelli effettivamente
+ * consegnati al trasporto: la differenza sono i messaggi in coda, in attesa di un client che non li legge.
+ * Superato il limite configurato i nuovi messaggi vengono scartati o la sessione viene chiusa,
+ * così che un solo client lento non accumuli memoria senza limiti.
+ * I messaggi di controllo STOMP (CONNECTED, RECEIPT, ERROR...) non vengono mai scartati.
+ * Le metriche dei messaggi in coda sono aggregate su tutte le sessioni (massimo, totale, sessioni vicine al limite),
+ * senza una serie per sessione che crescerebbe e cambierebbe ad ogni connessione.
+ */
+@Slf4j
+@Component
+public class WebSocketSessionMonitor implements WebSocketHandlerDecoratorFactory, ChannelInterceptor {
+
+    /**
+     * Comportamento adottato quando una sessione supera il numero massimo di messaggi in coda.
+     */
+    public enum SlowConsumerPolicy {
+        /**
+         * I nuovi messaggi per la sessione vengono scartati finché la coda non si svuota.
+         */
+        DROP,
+        /**
+         * La sessione viene chiusa; il client dovrà riconnettersi e ricaricare i dati.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Sessione che conta i messaggi accettati per l'invio e quelli consegnati al trasporto.
+     */
+    private static class TrackedSession extends WebSocketSessionDecorator {
+        /**
+         * Messaggi accettati sul canale in uscita per questa sessione.
+         */
+        private final AtomicLong accepted = new AtomicLong();
+
+        /**
+         * Messaggi consegnati al trasporto.
+         */
+        private final AtomicLong sent = new AtomicLong();
+
+        /**
+         * Impostato alla prima chiusura per lentezza, così che la sessione venga chiusa una sola volta.
+         */
+        private final AtomicBoolean closing = new AtomicBoolean();
+
+        private TrackedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            try {
+                super.sendMessage(message);
+            } finally {
+                sent.incrementAndGet();
+            }
+        }
+
+        /**
+         * Restituisce il numero di messaggi accettati ma non ancora consegnati al trasporto.
+         *
+         * @return il numero di messaggi in coda
+         */
+        private long queued() {
+            return Math.max(0, accepted.get() - sent.get());
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Numero massimo di messaggi in coda per sessione oltre il quale interviene la politica configurata.
+     */
+    @Value("${websocket.slow-consumer.max-queued-messages:1000}")
+    private long maxQueuedMessages;
+
+    /**
+     * Politica applicata alle sessioni che superano il limite.
+     */
+    @Value("${websocket.slow-consumer.policy:DROP}")
+    private SlowConsumerPolicy policy;
+
+    /**
+     * Sessioni aperte, per id di sessione.
+     */
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+
+    private Counter droppedMessages;
+
+    private Counter slowDisconnects;
+
+    /**
+     * Registra le metriche delle sessioni.
+     */
+    @PostConstruct
+    void init() {
+        Gauge.builder("websocket.sessions", sessions, Map::size)
+            .description("Sessioni WebSocket aperte")
+            .register(meterRegistry);
+        Gauge.builder("websocket.session.queued.max", this, WebSocketSessionMonitor::maxQueued)
+            .description("Messaggi in coda della sessione più lenta")
+            .register(meterRegistry);
+        Gauge.builder("websocket.session.queued.total", this, WebSocketSessionMonitor::totalQueued)
+            .description("Messaggi in coda di tutte le sessioni")
+            .register(meterRegistry);
+        Gauge.builder("websocket.sessions.slow", this, WebSocketSessionMonitor::slowSessions)
+            .description("Sessioni con almeno metà del numero massimo di messaggi in coda")
+            .register(meterRegistry);
+        droppedMessages = Counter.builder("websocket.messages.dropped")
+            .description("Messaggi scartati perché la sessione aveva troppi messaggi in coda")
+            .register(meterRegistry);
+        slowDisconnects = Counter.builder("websocket.sessions.slow.disconnected")
+            .description("Sessioni chiuse perché avevano troppi messaggi in coda")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Avvolge il gestore delle sessioni così che ogni nuova sessione venga tracciata fino alla chiusura.
+     *
+     * @param handler il gestore da decorare
+     * @return il gestore decorato
+     */
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                TrackedSession tracked = new TrackedSession(session);
+                sessions.put(session.getId(), tracked);
+                super.afterConnectionEstablished(tracked);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Conta ogni messaggio in uscita per la sua sessione e applica la politica per i client lenti.
+     *
+     * @param message il messaggio in uscita
+     * @param channel il canale in uscita verso i client
+     * @return il messaggio, o null se deve essere scartato
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        TrackedSession session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session == null) {
+            return message;
+        }
+
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE
+            && session.queued() >= maxQueuedMessages) {
+            if (policy == SlowConsumerPolicy.DROP) {
+                droppedMessages.increment();
+            } else {
+                disconnect(session);
+            }
+            return null;
+        }
+
+        session.accepted.incrementAndGet();
+        return message;
+    }
+
+    private void disconnect(TrackedSession session) {
+        if (!session.closing.compareAndSet(false, true)) {
+            return;
+        }
+        slowDisconnects.increment();
+        log.warn("Sessione WebSocket {} chiusa: {} messaggi in coda", session.getId(), session.queued());
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.debug("Chiusura della sessione WebSocket {} fallita", session.getId(), e);
+        }
+    }
+
+    private long maxQueued() {
+        long max = 0;
+        for (TrackedSession session : sessions.values()) {
+            max = Math.max(max, session.queued());
+        }
+        return max;
+    }
+
+    private long totalQueued() {
+        long total = 0;
+        for (TrackedSession session : sessions.values()) {
+            total += session.queued();
+        }
+        return total;
+    }
+
+    private long slowSessions() {
+        long threshold = Math.max(1, maxQueuedMessages / 2);
+        long slow = 0;
+        for (TrackedSession session : sessions.values()) {
+            if (session.queued() >= threshold) {
+                slow++;
+            }
+        }
+        return slow;
+    }
+}
@@ -0,0 +1,5 @@
+-- I codici brevi sono in base 62 e distinguono maiuscole e minuscole. Con la collation predefinita, che non le distingue,
+-- codici generati diversi come "aB3xYz" e "Ab3XyZ" violerebbero il vincolo di unicità e un codice verrebbe risolto
+-- anche scritto con maiuscole diverse, a differenza della cache di risoluzione.
+-- I codici esistenti sono già unici anche senza distinguere le maiuscole, quindi il vincolo resta valido.
+ALTER TABLE shortened_url MODIFY short_code VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL;
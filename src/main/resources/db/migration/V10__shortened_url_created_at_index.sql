@@ -0,0 +1,2 @@
+-- sincronizzazione del filtro dei codici brevi: codici creati nell'ultima finestra di tempo (vedi ShortCodeFilter)
+CREATE INDEX IF NOT EXISTS idx_shortened_url_created_at ON shortened_url (created_at);
@@ -0,0 +1,53 @@
+-- Schema iniziale, equivalente a quello generato finora da ddl-auto=update.
+-- Le istruzioni sono idempotenti: sui database esistenti (baseline-on-migrate) non modificano nulla.
+
+CREATE TABLE IF NOT EXISTS user_info (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    email VARCHAR(255) NOT NULL,
+    password VARCHAR(255) NOT NULL,
+    username VARCHAR(255) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_user_info_email UNIQUE (email),
+    CONSTRAINT uk_user_info_username UNIQUE (username)
+);
+
+CREATE TABLE IF NOT EXISTS shortened_url (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    created_at DATETIME(6) NOT NULL,
+    expiration_date DATETIME(6),
+    original_url VARCHAR(255) NOT NULL,
+    short_code VARCHAR(255) NOT NULL,
+    visit_count BIGINT DEFAULT 0 NOT NULL,
+    user_id BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_shortened_url_short_code UNIQUE (short_code),
+    CONSTRAINT fk_shortened_url_user FOREIGN KEY (user_id) REFERENCES user_info (id)
+);
+
+-- i database creati prima del contatore delle visite non hanno ancora la colonna
+ALTER TABLE shortened_url ADD COLUMN IF NOT EXISTS visit_count BIGINT DEFAULT 0 NOT NULL;
+
+CREATE TABLE IF NOT EXISTS url_visit (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    ip_address VARCHAR(255),
+    user_agent VARCHAR(255),
+    visit_date DATETIME(6) NOT NULL,
+    url_id BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT fk_url_visit_url FOREIGN KEY (url_id) REFERENCES shortened_url (id)
+);
+
+CREATE TABLE IF NOT EXISTS url_visit_hourly (
+    bucket_start DATETIME(6) NOT NULL,
+    url_id BIGINT NOT NULL,
+    visit_count BIGINT NOT NULL,
+    PRIMARY KEY (bucket_start, url_id)
+);
+
+CREATE TABLE IF NOT EXISTS url_visit_daily (
+    bucket_start DATETIME(6) NOT NULL,
+    url_id BIGINT NOT NULL,
+    ip_sketch VARBINARY(1024),
+    visit_count BIGINT NOT NULL,
+    PRIMARY KEY (bucket_start, url_id)
+);
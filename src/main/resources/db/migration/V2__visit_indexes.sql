@@ -0,0 +1,11 @@
+-- Indici composti per le query per link e per utente su intervalli di date.
+
+-- visite di un link in un intervallo, paginazione keyset ed esportazione
+CREATE INDEX IF NOT EXISTS idx_url_visit_url_date ON url_visit (url_id, visit_date);
+
+-- elenco dei link di un utente e join delle statistiche per account
+CREATE INDEX IF NOT EXISTS idx_shortened_url_user ON shortened_url (user_id);
+
+-- la chiave primaria dei rollup inizia con bucket_start: le serie di un singolo link usano questi indici
+CREATE INDEX IF NOT EXISTS idx_url_visit_hourly_url_bucket ON url_visit_hourly (url_id, bucket_start);
+CREATE INDEX IF NOT EXISTS idx_url_visit_daily_url_bucket ON url_visit_daily (url_id, bucket_start);
@@ -0,0 +1,5 @@
+-- Riallinea i contatori dei link che hanno visite ma contatore a zero,
+-- ad esempio sui database in cui la colonna visit_count è stata appena aggiunta.
+UPDATE shortened_url SET visit_count =
+    (SELECT COUNT(*) FROM url_visit v WHERE v.url_id = shortened_url.id)
+WHERE visit_count = 0 AND EXISTS (SELECT 1 FROM url_visit v WHERE v.url_id = shortened_url.id);
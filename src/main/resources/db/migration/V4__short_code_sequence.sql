@@ -0,0 +1,8 @@
+-- Sequenza condivisa da cui ogni nodo riserva blocchi di valori per i codici brevi generati.
+CREATE TABLE IF NOT EXISTS short_code_sequence (
+    name VARCHAR(32) NOT NULL,
+    next_value BIGINT NOT NULL,
+    PRIMARY KEY (name)
+);
+
+INSERT INTO short_code_sequence (name, next_value) VALUES ('url', 0);
@@ -0,0 +1,5 @@
+-- Eliminazione differita dei link: il link viene marcato come eliminato e nascosto subito,
+-- mentre le sue visite vengono cancellate a blocchi in background (vedi UrlPurgeService).
+ALTER TABLE shortened_url ADD COLUMN IF NOT EXISTS deleted_at DATETIME(6);
+
+CREATE INDEX IF NOT EXISTS idx_shortened_url_deleted ON shortened_url (deleted_at);
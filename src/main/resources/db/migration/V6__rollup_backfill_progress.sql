@@ -0,0 +1,16 @@
+-- Avanzamento della ricostruzione dei rollup dalle visite precedenti ai rollup (vedi VisitRollupService).
+-- end_id è l'ultima visita scritta prima di questa migrazione: le visite successive vengono già applicate
+-- ai rollup in fase di scrittura. last_id è l'ultima visita già applicata dalla ricostruzione.
+CREATE TABLE IF NOT EXISTS visit_rollup_backfill (
+    name VARCHAR(32) NOT NULL,
+    last_id BIGINT NOT NULL,
+    end_id BIGINT NOT NULL,
+    PRIMARY KEY (name)
+);
+
+-- i database con rollup già presenti sono stati ricostruiti dalle versioni precedenti e vengono considerati completi
+INSERT INTO visit_rollup_backfill (name, last_id, end_id)
+SELECT 'url_visit',
+       CASE WHEN EXISTS (SELECT 1 FROM url_visit_hourly) THEN COALESCE(MAX(id), 0) ELSE 0 END,
+       COALESCE(MAX(id), 0)
+FROM url_visit;
@@ -0,0 +1,10 @@
+-- Lock dei job pianificati condivisi tra i nodi (vedi JobLock).
+-- Un nodo esegue il job solo se riesce a spostare locked_until in avanti partendo da un valore già scaduto.
+CREATE TABLE IF NOT EXISTS job_lock (
+    name VARCHAR(64) NOT NULL,
+    locked_until DATETIME(6) NOT NULL,
+    locked_by VARCHAR(64),
+    PRIMARY KEY (name)
+);
+
+INSERT INTO job_lock (name, locked_until, locked_by) VALUES ('visit_retention', '1970-01-01 00:00:00', NULL);
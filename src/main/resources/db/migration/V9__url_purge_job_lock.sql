@@ -0,0 +1,2 @@
+-- Lock del job di eliminazione dei link (vedi UrlPurgeService), così che un solo nodo alla volta lo esegua.
+INSERT INTO job_lock (name, locked_until, locked_by) VALUES ('url_purge', '1970-01-01 00:00:00', NULL);
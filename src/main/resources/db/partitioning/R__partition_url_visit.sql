@@ -0,0 +1,46 @@
+-- Partizionamento mensile di url_visit per intervallo di visit_date (solo MariaDB).
+-- Facoltativo: viene eseguito solo aggiungendo classpath:db/partitioning a spring.flyway.locations,
+-- insieme a visits.partitioning.enabled=true perché le partizioni dei mesi successivi vengano create.
+-- Su tabelle grandi la conversione riscrive l'intera tabella: va eseguita in una finestra di manutenzione.
+-- È una migrazione ripetibile e non versionata: Flyway la esegue dopo tutte le migrazioni versionate, così che
+-- attivarla non sposti la storia delle versioni; ogni passo è condizionato e non fa nulla se già eseguito.
+
+SET @partitioned = (
+    SELECT COUNT(*) FROM information_schema.PARTITIONS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'url_visit' AND PARTITION_NAME IS NOT NULL
+);
+
+-- InnoDB non supporta chiavi esterne su tabelle partizionate: si rimuove quella verso shortened_url,
+-- qualunque sia il suo nome (i database creati da Hibernate hanno nomi generati)
+SET @fk_name = (
+    SELECT CONSTRAINT_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS
+    WHERE CONSTRAINT_SCHEMA = DATABASE() AND TABLE_NAME = 'url_visit'
+    LIMIT 1
+);
+SET @drop_fk = IF(@fk_name IS NULL, 'DO 0', CONCAT('ALTER TABLE url_visit DROP FOREIGN KEY `', @fk_name, '`'));
+PREPARE stmt FROM @drop_fk;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- la colonna di partizionamento deve far parte di ogni chiave univoca
+SET @pk_has_date = (
+    SELECT COUNT(*) FROM information_schema.KEY_COLUMN_USAGE
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'url_visit'
+      AND CONSTRAINT_NAME = 'PRIMARY' AND COLUMN_NAME = 'visit_date'
+);
+SET @primary_key_sql = IF(@pk_has_date > 0, 'DO 0', 'ALTER TABLE url_visit DROP PRIMARY KEY, ADD PRIMARY KEY (id, visit_date)');
+PREPARE stmt FROM @primary_key_sql;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- le visite passate restano in p_history; le partizioni mensili da questo mese in poi
+-- vengono create dal job di manutenzione dividendo p_future, che è sempre vuota o quasi
+SET @current_month = DATE_FORMAT(CURRENT_DATE, '%Y-%m-01');
+SET @partition_sql = IF(@partitioned > 0, 'DO 0', CONCAT(
+    'ALTER TABLE url_visit PARTITION BY RANGE COLUMNS (visit_date) (',
+    'PARTITION p_history VALUES LESS THAN (''', @current_month, '''), ',
+    'PARTITION p_future VALUES LESS THAN (MAXVALUE))'
+));
+PREPARE stmt FROM @partition_sql;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
@@ -0,0 +1,289 @@
+package it.accorcia.api;
+
+import it.accorcia.api.model.User;
+import it.accorcia.api.service.PendingVisit;
+import it.accorcia.api.service.ShortCodeFilter;
+import it.accorcia.api.service.VisitRollupService;
+import it.accorcia.api.util.JwtUtil;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Avvia l'applicazione completa su un database H2 in memoria, per benchmark e test di carico.
+ * Ogni istanza usa un database distinto e una porta casuale, così da poterne avviare più di una nello stesso processo.
+ * Con la replica abilitata l'applicazione instrada le letture delle statistiche a un secondo database H2,
+ * che viene allineato al principale con {@link #syncReplica()}.
+ */
+public class EmbeddedApplication implements AutoCloseable {
+
+    /**
+     * Prefisso degli URL originali dei link di prova.
+     */
+    public static final String ORIGINAL_URL_PREFIX = "https://example.org/page/";
+
+    /**
+     * Chiave di firma dei token JWT, lunga a sufficienza per HS256.
+     */
+    public static final String JWT_SECRET = "c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0";
+
+    /**
+     * Numero di righe inserite per ogni batch durante il popolamento.
+     */
+    private static final int SEED_BATCH_SIZE = 5000;
+
+    /**
+     * Utente inserito durante il popolamento.
+     *
+     * @param id l'identificatore dell'utente
+     * @param token un token JWT valido per l'utente
+     * @param codes i codici brevi dei link dell'utente
+     */
+    public record SeededUser(long id, String token, List<String> codes) {
+    }
+
+    private final ConfigurableApplicationContext context;
+
+    /**
+     * URL del database usato come replica, null se la replica non è abilitata.
+     */
+    private final String replicaUrl;
+
+    /**
+     * Avvia l'applicazione su un solo database.
+     *
+     * @param virtualThreads true per gestire le richieste con i virtual thread
+     * @param extraArgs altre proprietà, nella forma --nome=valore
+     */
+    public EmbeddedApplication(boolean virtualThreads, String... extraArgs) {
+        this(virtualThreads, false, extraArgs);
+    }
+
+    /**
+     * Avvia l'applicazione.
+     *
+     * @param virtualThreads true per gestire le richieste con i virtual thread
+     * @param replica true per instradare le letture delle statistiche a un secondo database
+     * @param extraArgs altre proprietà, nella forma --nome=valore
+     */
+    public EmbeddedApplication(boolean virtualThreads, boolean replica, String... extraArgs) {
+        String name = UUID.randomUUID().toString();
+        replicaUrl = replica ? h2Url(name + "-replica") : null;
+        List<String> args = new ArrayList<>(List.of(
+            "--spring.datasource.url=" + h2Url(name),
+            "--spring.datasource.username=sa",
+            "--spring.datasource.password=",
+            "--jwt.secret=" + JWT_SECRET,
+            "--spring.jpa.show-sql=false",
+            "--spring.main.banner-mode=off",
+            "--logging.level.root=WARN",
+            "--logging.level.org.springframework.security=WARN",
+            "--logging.level.io.jsonwebtoken=WARN",
+            "--server.port=0",
+            "--management.server.port=0",
+            "--spring.threads.virtual.enabled=" + virtualThreads
+        ));
+        if (replica) {
+            args.addAll(List.of(
+                "--datasource.routing.enabled=true",
+                "--datasource.analytics.url=" + replicaUrl,
+                "--datasource.analytics.username=sa",
+                "--datasource.analytics.password="
+            ));
+        }
+        args.addAll(List.of(extraArgs));
+        context = SpringApplication.run(SitoAccorciaApplication.class, args.toArray(String[]::new));
+        if (replica) {
+            syncReplica();
+        }
+    }
+
+    private static String h2Url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Copia schema e dati del database principale nella replica, sostituendone il contenuto,
+     * come una replica che ha appena ricevuto tutte le modifiche. Non fa nulla se la replica non è abilitata.
+     */
+    public void syncReplica() {
+        if (replicaUrl == null) {
+            return;
+        }
+        try {
+            Path script = Files.createTempFile("replica", ".sql");
+            try {
+                getBean(JdbcTemplate.class).execute("SCRIPT DROP TO '" + script + "'");
+                try (Connection connection = DriverManager.getConnection(replicaUrl, "sa", "");
+                     Statement statement = connection.createStatement()) {
+                    statement.execute("RUNSCRIPT FROM '" + script + "'");
+                }
+            } finally {
+                Files.delete(script);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Allineamento della replica non riuscito", e);
+        }
+    }
+
+    /**
+     * Inserisce un utente con i suoi link direttamente sul database, senza visite.
+     *
+     * @param links numero di link da inserire
+     * @return i codici brevi inseriti
+     */
+    public List<String> seed(int links) {
+        return seed(1, links, 0).getFirst().codes();
+    }
+
+    /**
+     * Inserisce utenti, link e visite direttamente sul database.
+     * I codici sono "bench0", "bench1"... e l'URL originale di ciascuno termina con il suo indice.
+     * Le visite sono distribuite nell'ultima settimana e vengono applicate anche ai rollup e ai contatori,
+     * come se fossero state acquisite dall'applicazione. Alla fine il filtro dei codici brevi viene ricostruito,
+     * così che i nuovi codici non vengano scartati, e la replica, se abilitata, viene allineata.
+     *
+     * @param users numero di utenti da inserire
+     * @param linksPerUser numero di link di ogni utente
+     * @param visitsPerLink numero di visite di ogni link
+     * @return gli utenti inseriti, con un token valido e i codici dei loro link
+     */
+    public List<SeededUser> seed(int users, int linksPerUser, int visitsPerLink) {
+        JdbcTemplate jdbc = getBean(JdbcTemplate.class);
+        JwtUtil jwtUtil = getBean(JwtUtil.class);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        List<SeededUser> seeded = new ArrayList<>(users);
+        List<Long> urlIds = new ArrayList<>(users * linksPerUser);
+        int index = 0;
+        for (int u = 0; u < users; u++) {
+            String username = "bench" + u;
+            jdbc.update(
+                "INSERT INTO user_info (username, email, password) VALUES (?, ?, ?)",
+                username, username + "@example.org", "-"
+            );
+            Long userId = jdbc.queryForObject("SELECT id FROM user_info WHERE username = ?", Long.class, username);
+
+            List<String> codes = new ArrayList<>(linksPerUser);
+            List<Object[]> rows = new ArrayList<>(linksPerUser);
+            for (int l = 0; l < linksPerUser; l++, index++) {
+                String code = "bench" + index;
+                codes.add(code);
+                rows.add(new Object[]{code, ORIGINAL_URL_PREFIX + index, now, visitsPerLink, userId});
+            }
+            jdbc.batchUpdate(
+                "INSERT INTO shortened_url (short_code, original_url, created_at, visit_count, user_id) "
+                    + "VALUES (?, ?, ?, ?, ?)",
+                rows
+            );
+            urlIds.addAll(jdbc.queryForList("SELECT id FROM shortened_url WHERE user_id = ?", Long.class, userId));
+
+            User user = User.builder().id(userId).username(username).email(username + "@example.org").build();
+            seeded.add(new SeededUser(userId, jwtUtil.generateToken(user), codes));
+        }
+
+        seedVisits(jdbc, urlIds, visitsPerLink);
+        getBean(ShortCodeFilter.class).rebuild();
+        syncReplica();
+        return seeded;
+    }
+
+    /**
+     * Inserisce le visite dei link a blocchi, aggiornando anche i rollup.
+     *
+     * @param jdbc il template JDBC
+     * @param urlIds gli identificatori dei link
+     * @param visitsPerLink numero di visite di ogni link
+     */
+    private void seedVisits(JdbcTemplate jdbc, List<Long> urlIds, int visitsPerLink) {
+        VisitRollupService rollupService = getBean(VisitRollupService.class);
+        TransactionTemplate transactionTemplate = getBean(TransactionTemplate.class);
+        LocalDateTime now = LocalDateTime.now();
+        long week = 7L * 24 * 3600;
+
+        List<PendingVisit> chunk = new ArrayList<>(SEED_BATCH_SIZE);
+        long sequence = 0;
+        for (Long urlId : urlIds) {
+            for (int v = 0; v < visitsPerLink; v++, sequence++) {
+                chunk.add(new PendingVisit(
+                    urlId,
+                    now.minusSeconds(sequence * 7919 % week),
+                    "198.51.100." + (sequence % 250),
+                    "Mozilla/5.0 (bench)"
+                ));
+                if (chunk.size() == SEED_BATCH_SIZE) {
+                    insertVisits(jdbc, transactionTemplate, rollupService, chunk);
+                    chunk = new ArrayList<>(SEED_BATCH_SIZE);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            insertVisits(jdbc, transactionTemplate, rollupService, chunk);
+        }
+    }
+
+    private static void insertVisits(
+        JdbcTemplate jdbc,
+        TransactionTemplate transactionTemplate,
+        VisitRollupService rollupService,
+        List<PendingVisit> visits
+    ) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbc.batchUpdate(
+                "INSERT INTO url_visit (url_id, visit_date, ip_address, user_agent) VALUES (?, ?, ?, ?)",
+                visits,
+                visits.size(),
+                (ps, visit) -> {
+                    ps.setLong(1, visit.urlId());
+                    ps.setTimestamp(2, Timestamp.valueOf(visit.visitDate()));
+                    ps.setString(3, visit.ipAddress());
+                    ps.setString(4, visit.userAgent());
+                }
+            );
+            rollupService.apply(visits);
+        });
+    }
+
+    /**
+     * Restituisce l'indirizzo base dell'applicazione avviata.
+     *
+     * @return l'indirizzo, ad esempio http://localhost:51234
+     */
+    public String baseUrl() {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    /**
+     * Restituisce un bean del contesto dell'applicazione.
+     *
+     * @param type il tipo del bean
+     * @param <T> il tipo del bean
+     * @return il bean
+     */
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,126 @@
+package it.accorcia.api.repository;
+
+import it.accorcia.api.dto.UrlView;
+import it.accorcia.api.model.ShortenedUrl;
+import it.accorcia.api.model.UrlVisit;
+import it.accorcia.api.model.User;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifica che l'elenco degli URL di un utente venga letto con un numero fisso di istruzioni SQL,
+ * indipendentemente dal numero di URL e di visite (nessuna query N+1 su utente o visite).
+ * Lo schema viene creato dalle migrazioni Flyway su H2 in modalità MariaDB.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+    "spring.datasource.url=jdbc:h2:mem:urls;MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+class ShortenedUrlRepositoryTest {
+
+    @Autowired
+    private ShortenedUrlRepository urlRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void listingUsesOneStatementRegardlessOfUrlsAndVisits() {
+        User small = createUser("small", 1, 0);
+        User large = createUser("large", 50, 20);
+        entityManager.flush();
+        entityManager.clear();
+
+        long smallStatements = countStatements(() -> {
+            List<UrlView> urls = urlRepository.findByUserId(small.getId());
+            assertThat(urls).hasSize(1);
+        });
+        long largeStatements = countStatements(() -> {
+            List<UrlView> urls = urlRepository.findByUserId(large.getId());
+            assertThat(urls).hasSize(50);
+            assertThat(urls).allSatisfy(url -> assertThat(url.visitCount()).isEqualTo(20));
+        });
+
+        assertThat(smallStatements).isEqualTo(1);
+        assertThat(largeStatements).isEqualTo(smallStatements);
+    }
+
+    @Test
+    void listingSkipsDeletedUrls() {
+        User user = createUser("deleted", 3, 0);
+        entityManager.flush();
+        entityManager.getEntityManager()
+            .createNativeQuery("UPDATE shortened_url SET deleted_at = CURRENT_TIMESTAMP WHERE short_code = 'deleted0'")
+            .executeUpdate();
+        entityManager.clear();
+
+        assertThat(urlRepository.findByUserId(user.getId()))
+            .extracting(UrlView::shortCode)
+            .containsExactly("deleted1", "deleted2");
+    }
+
+    /**
+     * Esegue un'azione e restituisce il numero di istruzioni SQL preparate da Hibernate durante l'esecuzione.
+     */
+    private long countStatements(Runnable action) {
+        statistics.clear();
+        action.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * Crea un utente con i suoi URL, ognuno con il numero di visite indicato.
+     */
+    private User createUser(String name, int urls, int visitsPerUrl) {
+        User user = entityManager.persist(User.builder()
+            .username(name)
+            .email(name + "@example.org")
+            .password("-")
+            .build());
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < urls; i++) {
+            ShortenedUrl url = entityManager.persist(ShortenedUrl.builder()
+                .originalUrl("https://example.org/" + name + "/" + i)
+                .shortCode(name + i)
+                .createdAt(now)
+                .visitCount(visitsPerUrl)
+                .user(user)
+                .build());
+            for (int v = 0; v < visitsPerUrl; v++) {
+                entityManager.persist(UrlVisit.builder()
+                    .visitDate(now.minusMinutes(v))
+                    .ipAddress("198.51.100." + v)
+                    .url(url)
+                    .build());
+            }
+        }
+        return user;
+    }
+}